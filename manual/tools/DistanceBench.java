@@ -0,0 +1,160 @@
+/*
+ * Accuracy and timing benchmark for Location.distance, run on a desktop JVM
+ * against the sources:
+ *
+ *   javac -d /tmp/bench -sourcepath src manual/tools/DistanceBench.java
+ *   java -cp /tmp/bench general.DistanceBench [pairs]
+ *
+ * For each hop length, random pairs of fixes in microdegrees are compared
+ * with the haversine formula using Math.asin. The previous implementation
+ * (haversine with a single Newton step asin, 6367 km radius) is measured the
+ * same way, against Math.asin at its own radius, so only the algorithm counts.
+ */
+package general;
+
+import java.util.Random;
+
+public class DistanceBench {
+
+    private static final double[] hops = {10, 100, 1000, 10000, 30000, 1000000, 10000000};
+    private static final double OLD_RADIUS = 6367000.0;
+
+    public static void main(String[] args) {
+        int pairs = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        Random random = new Random(1);
+
+        System.out.println("hop m      max rel. error  old max rel.    ns/call  old ns/call");
+        for (int h = 0; h < hops.length; h++) {
+            Location[] from = new Location[pairs];
+            Location[] to = new Location[pairs];
+            for (int i = 0; i < pairs; i++) {
+                from[i] = new Location();
+                to[i] = new Location();
+                pair(random, hops[h], from[i], to[i]);
+            }
+
+            double max = 0;
+            double oldMax = 0;
+            for (int i = 0; i < pairs; i++) {
+                double reference = reference(from[i], to[i], Location.EARTH_RADIUS);
+                double oldReference = reference(from[i], to[i], OLD_RADIUS);
+                max = Math.max(max, Math.abs(from[i].distance(to[i]) - reference) / reference);
+                oldMax = Math.max(oldMax, Math.abs(old(from[i], to[i]) - oldReference) / oldReference);
+            }
+
+            System.out.println(pad(Long.toString((long) hops[h]), 11)
+                    + pad(format(max), 16) + pad(format(oldMax), 16)
+                    + pad(Long.toString(time(from, to, false)), 9)
+                    + time(from, to, true));
+        }
+
+        double asinMax = 0;
+        for (int i = 0; i <= 1000000; i++) {
+            double a = i / 1000000.0;
+            asinMax = Math.max(asinMax, Math.abs(Location.asin(a) - Math.asin(a)));
+        }
+        System.out.println("asin max abs. error over 0..1: " + format(asinMax));
+    }
+
+    /**
+     * Places two fixes hop meters apart in a random direction, latitudes
+     * within +-80 degrees.
+     */
+    private static void pair(Random random, double hop, Location from, Location to) {
+        double lat1 = Math.toRadians(random.nextDouble() * 160 - 80);
+        double lon1 = Math.toRadians(random.nextDouble() * 360 - 180);
+        double bearing = random.nextDouble() * 2 * Math.PI;
+        double d = hop / Location.EARTH_RADIUS;
+        double lat2 = Math.asin(Math.sin(lat1) * Math.cos(d)
+                + Math.cos(lat1) * Math.sin(d) * Math.cos(bearing));
+        double lon2 = lon1 + Math.atan2(Math.sin(bearing) * Math.sin(d) * Math.cos(lat1),
+                Math.cos(d) - Math.sin(lat1) * Math.sin(lat2));
+        if (lon2 > Math.PI) {
+            lon2 -= 2 * Math.PI;
+        } else if (lon2 < -Math.PI) {
+            lon2 += 2 * Math.PI;
+        }
+        from.latitude = (int) Math.round(Math.toDegrees(lat1) * 1e6);
+        from.longitude = (int) Math.round(Math.toDegrees(lon1) * 1e6);
+        to.latitude = (int) Math.round(Math.toDegrees(lat2) * 1e6);
+        to.longitude = (int) Math.round(Math.toDegrees(lon2) * 1e6);
+    }
+
+    private static double reference(Location from, Location to, double radius) {
+        double lat1 = Math.toRadians(from.latitude / 1e6);
+        double lat2 = Math.toRadians(to.latitude / 1e6);
+        double sinDlat = Math.sin((lat2 - lat1) / 2);
+        double sinDlon = Math.sin(Math.toRadians((to.longitude - from.longitude) / 1e6) / 2);
+        double a = sinDlat * sinDlat + Math.cos(lat1) * Math.cos(lat2) * sinDlon * sinDlon;
+        return radius * 2 * Math.asin(Math.sqrt(a));
+    }
+
+    /**
+     * The implementation before the equirectangular short hops.
+     */
+    private static double old(Location from, Location to) {
+        double lon1 = Math.toRadians(from.longitude / 1e6);
+        double lon2 = Math.toRadians(to.longitude / 1e6);
+        double lat1 = Math.toRadians(from.latitude / 1e6);
+        double lat2 = Math.toRadians(to.latitude / 1e6);
+        double sinDlat = Math.sin((lat2 - lat1) / 2);
+        double sinDlon = Math.sin((lon2 - lon1) / 2);
+        double a = sinDlat * sinDlat + Math.cos(lat1) * Math.cos(lat2) * sinDlon * sinDlon;
+        return OLD_RADIUS * 2 * oldAsin(Math.sqrt(a));
+    }
+
+    private static double oldAsin(double a) {
+        double x = a;
+        do {
+            x -= (Math.sin(x) - a) / Math.cos(x);
+        } while (Math.abs(Math.sin(x) - a) > Math.E);
+        return x;
+    }
+
+    /**
+     * Returns nanoseconds per call, best of five rounds after warming up.
+     * Fresh copies are used for each round, so the cached cosine is paid
+     * once per fix as on the device.
+     */
+    private static long time(Location[] from, Location[] to, boolean old) {
+        long best = Long.MAX_VALUE;
+        double sink = 0;
+        for (int round = 0; round < 15; round++) {
+            Location[] a = new Location[from.length];
+            Location[] b = new Location[to.length];
+            for (int i = 0; i < from.length; i++) {
+                a[i] = from[i].copy();
+                b[i] = to[i].copy();
+            }
+            long start = System.nanoTime();
+            for (int i = 0; i < a.length; i++) {
+                sink += old ? old(a[i], b[i]) : a[i].distance(b[i]);
+            }
+            long elapsed = System.nanoTime() - start;
+            if (round >= 10) {
+                best = Math.min(best, elapsed / a.length);
+            }
+        }
+        if (sink == -1) {
+            System.out.println(sink);
+        }
+        return best;
+    }
+
+    private static String format(double value) {
+        if (value == 0) {
+            return "0";
+        }
+        int exponent = (int) Math.floor(Math.log10(value));
+        double mantissa = value / Math.pow(10, exponent);
+        return Math.round(mantissa * 10) / 10.0 + "e" + exponent;
+    }
+
+    private static String pad(String string, int width) {
+        StringBuffer buffer = new StringBuffer(string);
+        while (buffer.length() < width) {
+            buffer.append(' ');
+        }
+        return buffer.toString();
+    }
+}
@@ -0,0 +1,135 @@
+#!/usr/bin/env python
+# -*- coding: utf-8 -*-
+
+# Reference decoder for the binary location payload (payload=binary),
+# see "Binary" in the MQTT chapter of the manual.
+#
+# Usage: binloc.py host topic
+#    or: binloc.py < file    (one record per line, hex encoded, optionally
+#                             preceded by its topic and a space)
+#
+# Each topic has its own chain. A delta on ../backfill without predecessor
+# there continues the chain of the location topic, as its predecessor went
+# there before a restart of the device.
+
+import sys
+import json
+
+
+class Decoder(object):
+    def __init__(self, fallback=None):
+        self.last = None  # last decoded record of the chain
+        self.ended = []  # last records of chains ended by a keyframe
+        self.fallback = fallback  # decoder of the location topic
+
+    def find(self, seq):
+        """Returns the decoded record with sequence number seq, if it is
+        the end of the current or a recently ended chain."""
+        for record in [self.last] + self.ended[::-1]:
+            if record is not None and record['seq'] == seq:
+                return record
+        return None
+
+    @staticmethod
+    def varint(data, pos):
+        value = 0
+        shift = 0
+        while True:
+            b = data[pos]
+            pos += 1
+            value |= (b & 0x7F) << shift
+            shift += 7
+            if not b & 0x80:
+                return value, pos
+
+    @staticmethod
+    def signed(value):
+        return (value >> 1) ^ -(value & 1)
+
+    def decode(self, payload):
+        """Returns an OwnTracks like location dict, None if the record
+        cannot be decoded because its predecessor is missing."""
+        data = bytearray(payload)
+        kind, seq, trigger = chr(data[0]), data[1], chr(data[2])
+        pos = 3
+        loc = {'_type': 'location', 't': trigger, 'seq': seq}
+        if kind == 'K':
+            if self.last is not None and (self.last['seq'] + 1) & 0xFF != seq:
+                self.ended = (self.ended + [self.last])[-4:]
+            n = data[pos]
+            loc['tid'] = data[pos + 1:pos + 1 + n].decode('utf-8')
+            pos += 1 + n
+            loc['tst'], pos = self.varint(data, pos)
+            for key in ('lat', 'lon', 'alt'):
+                v, pos = self.varint(data, pos)
+                loc[key] = self.signed(v)
+            loc['trip'], pos = self.varint(data, pos)
+        elif kind == 'D':
+            previous = self.last
+            if previous is None or (previous['seq'] + 1) & 0xFF != seq:
+                previous = None
+                if self.fallback is not None:
+                    previous = self.fallback.find((seq - 1) & 0xFF)
+                if previous is None:
+                    self.last = None
+                    return None
+            loc['tid'] = previous['tid']
+            for key in ('tst', 'lat', 'lon', 'alt', 'trip'):
+                v, pos = self.varint(data, pos)
+                loc[key] = previous[key] + self.signed(v)
+        else:
+            raise ValueError('unknown record kind %r' % kind)
+        for key in ('cog', 'vel', 'dist', 'acc'):
+            loc[key], pos = self.varint(data, pos)
+        self.last = dict(loc)
+
+        loc['lat'] = '%.6f' % (loc['lat'] / 1e6)
+        loc['lon'] = '%.6f' % (loc['lon'] / 1e6)
+        if loc['acc'] == 0:
+            del loc['acc']
+        return loc
+
+
+class Decoders(object):
+    """One decoder per topic, ../alarm records are always keyframes."""
+
+    def __init__(self):
+        self.decoders = {}
+
+    def get(self, topic):
+        if topic not in self.decoders:
+            fallback = None
+            if topic.endswith('/backfill'):
+                fallback = self.get(topic[:-len('/backfill')])
+            self.decoders[topic] = Decoder(fallback)
+        return self.decoders[topic]
+
+    def decode(self, topic, payload):
+        if topic.endswith('/alarm'):
+            return Decoder().decode(payload)
+        return self.get(topic).decode(payload)
+
+
+def main():
+    decoders = Decoders()
+    if len(sys.argv) == 3:
+        import paho.mqtt.client as mqtt
+
+        def on_message(client, userdata, msg):
+            print(json.dumps(decoders.decode(msg.topic, msg.payload)))
+
+        client = mqtt.Client()
+        client.on_message = on_message
+        client.connect(sys.argv[1])
+        client.subscribe(sys.argv[2])
+        client.loop_forever()
+    else:
+        for line in sys.stdin:
+            fields = line.split()
+            if fields:
+                topic = fields[0] if len(fields) > 1 else ''
+                print(json.dumps(decoders.decode(topic, bytearray.fromhex(fields[-1]))))
+
+
+if __name__ == '__main__':
+    main()
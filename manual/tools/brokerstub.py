@@ -0,0 +1,264 @@
+#!/usr/bin/env python
+# -*- coding: utf-8 -*-
+
+# Broker stand-in to check the MQTT 5 connect of the device (mqttVersion=5)
+# without a real broker, see "mqttVersion" in the settings.
+#
+# Usage: brokerstub.py [-p port] [-a max | -d] [-c count]
+#
+#   -p port   port to listen on, default 1883
+#   -a max    answer a version 5 CONNECT with TopicAliasMaximum max, default 4
+#   -d        decline version 5 with return code 1 as a 3.1 broker does,
+#             the device has to reconnect with "MQIsdp" level 3
+#   -c count  exit after count publishes, with status 1 if a check failed
+#
+# Point host and port of the device to this machine. Each publish is printed
+# with the topic it resolves to. Topic aliases are checked against the
+# maximum and the aliases established on the connection, a publish without
+# topic name must carry a known alias. Lines starting with "ERROR" are
+# failed checks.
+
+import sys
+import socket
+import struct
+import getopt
+
+
+class Stub(object):
+    def __init__(self, aliasMaximum, decline, count):
+        self.aliasMaximum = aliasMaximum
+        self.decline = decline
+        self.count = count
+        self.declined = False
+        self.publishes = 0
+        self.errors = 0
+
+    def error(self, message):
+        self.errors += 1
+        print('ERROR ' + message)
+
+    def serve(self, connection):
+        self.connection = connection
+        self.version = None
+        self.aliases = {}  # topic aliases only live as long as the connection
+        try:
+            while True:
+                first = self.read(1)
+                if first is None:
+                    return
+                data = self.read(self.readLength())
+                if not self.packet(first[0] >> 4, first[0] & 0x0f, Reader(data)):
+                    return
+        finally:
+            connection.close()
+
+    def read(self, n):
+        data = bytearray()
+        while len(data) < n:
+            chunk = self.connection.recv(n - len(data))
+            if not chunk:
+                return None
+            data.extend(chunk)
+        return data
+
+    def readLength(self):
+        length = 0
+        multiplier = 1
+        while True:
+            digit = self.read(1)[0]
+            length += (digit & 0x7f) * multiplier
+            multiplier *= 128
+            if digit & 0x80 == 0:
+                return length
+
+    def send(self, first, data=b''):
+        self.connection.sendall(bytearray([first, len(data)]) + bytearray(data))
+
+    def packet(self, kind, flags, reader):
+        if kind == 1:
+            return self.connect(reader)
+        if self.version is None:
+            self.error('packet type %d before CONNECT' % kind)
+            return False
+        if kind == 3:
+            self.publish(flags, reader)
+            return not self.finished()
+        elif kind == 6:  # PUBREL
+            self.send(0x70, reader.rest())
+        elif kind == 8:
+            self.subscribe(reader)
+        elif kind == 10:  # UNSUBSCRIBE
+            msgId = reader.rest()[:2]
+            self.send(0xb0, msgId)
+        elif kind == 12:  # PINGREQ
+            self.send(0xd0)
+        elif kind == 14:  # DISCONNECT
+            return False
+        return True
+
+    def finished(self):
+        return self.count is not None and self.publishes >= self.count
+
+    def connect(self, reader):
+        name = reader.string()
+        level = reader.byte()
+        flags = reader.byte()
+        keepAlive = reader.short()
+        if (name, level) not in (('MQTT', 5), ('MQIsdp', 3)):
+            self.error('CONNECT protocol %s level %d' % (name, level))
+            return False
+        if level == 5:
+            properties = reader.properties()
+            if flags & 0x02 == 0 and properties.get(0x11) != 0xffffffff:
+                self.error('CONNECT without clean session and without session expiry')
+            if self.decline:
+                print('CONNECT level 5 declined')
+                self.declined = True
+                self.send(0x20, b'\x00\x01')
+                return False
+            print('CONNECT level 5 keepAlive=%d TopicAliasMaximum=%d' % (keepAlive, self.aliasMaximum))
+            self.send(0x20, b'\x00\x00\x03\x22' + struct.pack('>H', self.aliasMaximum))
+        else:
+            if self.decline and not self.declined:
+                self.error('CONNECT level 3 without trying level 5 first')
+            print('CONNECT level 3 keepAlive=%d' % keepAlive)
+            self.send(0x20, b'\x00\x00')
+        self.version = level
+        return True
+
+    def publish(self, flags, reader):
+        qos = (flags >> 1) & 3
+        topic = reader.string()
+        msgId = reader.short() if qos > 0 else None
+        alias = None
+        if self.version == 5:
+            alias = reader.properties().get(0x23)
+        payload = reader.rest()
+        omitted = topic == ''
+
+        if alias is not None:
+            if self.aliasMaximum == 0 or alias > self.aliasMaximum:
+                self.error('alias %d above TopicAliasMaximum %d' % (alias, self.aliasMaximum))
+            elif topic != '':
+                self.aliases[alias] = topic
+            elif alias in self.aliases:
+                topic = self.aliases[alias]
+            else:
+                self.error('empty topic with unknown alias %d' % alias)
+        elif topic == '':
+            self.error('empty topic without alias')
+
+        self.publishes += 1
+        print('PUBLISH %s alias=%s%s qos=%d retain=%d bytes=%d' % (
+            topic, alias, ' (topic omitted)' if omitted else '', qos, flags & 1, len(payload)))
+        if qos == 1:
+            self.send(0x40, struct.pack('>H', msgId))
+        elif qos == 2:
+            self.send(0x50, struct.pack('>H', msgId))
+
+    def subscribe(self, reader):
+        msgId = reader.short()
+        if self.version == 5:
+            reader.properties()
+        granted = bytearray()
+        while not reader.done():
+            reader.string()
+            granted.append(reader.byte() & 3)
+        header = struct.pack('>H', msgId)
+        if self.version == 5:
+            header += b'\x00'
+        self.send(0x90, bytearray(header) + granted)
+
+
+class Reader(object):
+    def __init__(self, data):
+        self.data = data
+        self.offset = 0
+
+    def done(self):
+        return self.offset >= len(self.data)
+
+    def byte(self):
+        self.offset += 1
+        return self.data[self.offset - 1]
+
+    def short(self):
+        return (self.byte() << 8) | self.byte()
+
+    def binary(self):
+        length = self.short()
+        self.offset += length
+        return self.data[self.offset - length:self.offset]
+
+    def string(self):
+        return self.binary().decode('utf-8')
+
+    def rest(self):
+        rest = self.data[self.offset:]
+        self.offset = len(self.data)
+        return rest
+
+    def length(self):
+        length = 0
+        multiplier = 1
+        while True:
+            digit = self.byte()
+            length += (digit & 0x7f) * multiplier
+            multiplier *= 128
+            if digit & 0x80 == 0:
+                return length
+
+    def properties(self):
+        """Returns the integer properties of a property block, the others
+        are skipped."""
+        properties = {}
+        end = self.length() + self.offset
+        while self.offset < end:
+            id = self.byte()
+            if id in (0x01, 0x17, 0x19, 0x24, 0x25, 0x28, 0x29, 0x2a):
+                properties[id] = self.byte()
+            elif id in (0x13, 0x21, 0x22, 0x23):
+                properties[id] = self.short()
+            elif id in (0x02, 0x11, 0x18, 0x27):
+                properties[id] = (self.short() << 16) | self.short()
+            elif id == 0x0b:
+                properties[id] = self.length()
+            elif id == 0x26:
+                self.binary()
+                self.binary()
+            else:
+                self.binary()
+        return properties
+
+
+def main():
+    port = 1883
+    aliasMaximum = 4
+    decline = False
+    count = None
+    opts, args = getopt.getopt(sys.argv[1:], 'p:a:dc:')
+    for opt, value in opts:
+        if opt == '-p':
+            port = int(value)
+        elif opt == '-a':
+            aliasMaximum = int(value)
+        elif opt == '-d':
+            decline = True
+        elif opt == '-c':
+            count = int(value)
+
+    stub = Stub(aliasMaximum, decline, count)
+    server = socket.socket(socket.AF_INET, socket.SOCK_STREAM)
+    server.setsockopt(socket.SOL_SOCKET, socket.SO_REUSEADDR, 1)
+    server.bind(('', port))
+    server.listen(1)
+    while not stub.finished():
+        connection, address = server.accept()
+        print('connection from %s:%d' % address)
+        stub.serve(connection)
+    server.close()
+    sys.exit(1 if stub.errors else 0)
+
+
+if __name__ == '__main__':
+    main()
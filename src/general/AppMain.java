@@ -59,6 +59,7 @@ public class AppMain extends MIDlet {
         CommASC0Thread.getInstance();
         SocketGPRSThread.getInstance();
         CommGPSThread.getInstance();
+        CommandWorkerThread.getInstance();
         if (MicroManager.getInstance().isAdvanced()) {
             CanManagerThread.getInstance();
         }
@@ -124,9 +125,11 @@ public class AppMain extends MIDlet {
 
             SLog.log(SLog.Debug, "AppMain", "SWITCH ON RADIO PART of the module...");
 
+            GPSProcessorThread.getInstance().start();
             CommGPSThread.getInstance().start();
             CommASC0Thread.getInstance().start();
             SocketGPRSThread.getInstance().start();
+            CommandWorkerThread.getInstance().start();
             if (MicroManager.getInstance().isAdvanced()) {
                 CanManagerThread.getInstance().start();
             }
@@ -142,9 +145,19 @@ public class AppMain extends MIDlet {
                 CanManagerThread.getInstance().join();
             }
 
+            CommandWorkerThread.getInstance().terminate = true;
+            CommandWorkerThread.getInstance().join();
+
             CommGPSThread.getInstance().terminate = true;
             CommGPSThread.getInstance().join();
 
+            GPSProcessorThread.getInstance().terminate = true;
+            GPSProcessorThread.getInstance().join();
+
+            // location state is written by the processing thread only
+            LocationManager.getInstance().persistTrip();
+            LocationHistory.getInstance().flush();
+
             SocketGPRSThread.getInstance().terminate = true;
             SocketGPRSThread.getInstance().join();
 
@@ -204,9 +217,9 @@ public class AppMain extends MIDlet {
         SLog.log(SLog.Debug, "AppMain", "cleanup");
 
         if (!isOff()) {
-            String json = LocationManager.getInstance().getlastPayloadString("L");
-            LocationManager.getInstance().send(json);
-            Settings.getInstance().setSetting("lastFix", json);
+            LocationManager.getInstance().send(LocationManager.getInstance().getlastPayload("L"));
+            Settings.getInstance().setSetting("lastFix",
+                    LocationManager.getInstance().getlastPayloadString("L"));
         }
 
         SLog.log(SLog.Debug, "AppMain", "sending remaining messages");
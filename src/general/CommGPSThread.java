@@ -27,15 +27,79 @@ public class CommGPSThread extends Thread {
     private static final int[] PM0sec = {181, 98, 6, 50, 24, 0, 0, 6, 0, 0, 4, 144, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 234, 232};
 
     private static final int loopSleep = 100;
+    /* poll interval while the receiver sleeps */
+    private static final int sleepingLoopSleep = 1000;
+
+    /* CFG-MSG class/id pairs for GGA, RMC and NAV-PVT */
+    private static final int[] GGA = {0xF0, 0x00};
+    private static final int[] RMC = {0xF0, 0x04};
+    private static final int[] NAV_PVT = {0x01, 0x07};
+
+    /* UBX AID messages saved at shutdown and injected at start */
+    private static final int CLASS_AID = 0x0B;
+    private static final int AID_INI = 0x01;
+    private static final int AID_HUI = 0x02;
+    private static final int AID_ALM = 0x30;
+    private static final int AID_EPH = 0x31;
+    /* ALM and EPH payload length for satellites without data */
+    private static final int AID_EMPTY = 8;
+    private static final int satellites = 32;
+    /* bytes per second at 9600 baud, 8N1 */
+    private static final int portRate = 960;
+    /* poll reply with data for all satellites, HUI 80, ALM 48 and EPH 112
+     * bytes per frame, at least 6 s */
+    private static final int aidingBytes = 80 + satellites * (48 + 112);
+    private static final int aidingTimeout = Math.max(6000, aidingBytes * 1000 / portRate + 1000);
+    /* position valid, flags and position */
+    private static final int aidingHeader = 13;
+    /* Unix time of the GPS epoch 1980-01-06 and GPS - UTC in seconds */
+    private static final long GPS_EPOCH = 315964800L;
+    private static final int GPS_LEAP_SECONDS = 18;
+
+    private final NMEAReader reader = new NMEAReader();
+    private final PersistentRecord aidingRecord = new PersistentRecord("AidingData");
+    /* aiding frames still to be sent */
+    private byte[] aiding = null;
+    private int aidingOffset = 0;
 
     public boolean terminate = false;
 
+    private boolean sleeping = false;
+    private boolean moved = false;
+    private long movedMillis = 0;
+    private long wakeupMillis = 0;
+    private long checkMillis = 0;
+    /* sleeps granted by GPSProcessorThread and acted on */
+    private int sleeps = 0;
+
     InputStream is;
     OutputStream os;
 
     public CommGPSThread() {
     }
 
+    /**
+     * Returns reader statistics as sentences,checksum errors,overruns,dropped
+     * bytes,processing overruns
+     */
+    public String getStatistics() {
+        GPSProcessorThread processor = GPSProcessorThread.getInstance();
+        return reader.sentences + "," + processor.getErrors() + "," + reader.overruns + "," + reader.dropped
+                + "," + processor.overruns;
+    }
+
+    public boolean isSleeping() {
+        return sleeping;
+    }
+
+    /**
+     * Motion detected, wakes up the receiver if it is sleeping and keeps it
+     * awake for another gpsSleep seconds.
+     */
+    public void wakeup() {
+        moved = true;
+    }
+
     public static CommGPSThread getInstance() {
         return CommGPStrasparentHolder.INSTANCE;
     }
@@ -59,46 +123,286 @@ public class CommGPSThread extends Thread {
             return;
         }
 
+        boolean pvt = Settings.getInstance().getSetting("gpsProtocol", "nmea").equalsIgnoreCase("ubx");
+
         try {
             init_GPS(os);
             init_GPS(os);
+            init_output(os, pvt);
+            loadAiding();
 
             while (!terminate) {
                 AppMain.getInstance().userwareWatchDogTask.gpsRunning = true;
                 AppMain.getInstance().gpio6WatchDogTask.gpsRunning = true;
 
-                if (is.available() > 0) {
-                    int c;
-                    String line = "";
-
-                    do {
-                        c = is.read();
-                        if (c != '\n' && c > 0) {
-                            line += (char) c;
+                if (aiding != null) {
+                    sendAiding(os);
+                }
+                schedule(os, pvt);
+
+                if (reader.fill(is) > 0) {
+                    GPSProcessorThread processor = GPSProcessorThread.getInstance();
+                    int kind;
+                    while ((kind = reader.next()) >= 0) {
+                        if (sleeping) {
+                            // left overs and acknowledges, no positions
+                            continue;
                         }
-                    } while (c != '\n' && c > 0);
+                        processor.put(kind, reader.bytes, reader.offset, reader.length);
+                    }
+                    processor.signal();
+                } else {
+                    try {
+                        Thread.sleep(sleeping ? sleepingLoopSleep : loopSleep);
+                    } catch (InterruptedException ie) {
+                        // ignore
+                    }
+                }
+            }
+
+            saveAiding(is, os);
+
+            is.close();
+            os.close();
+            connGPS.close();
+
+        } catch (IOException ioe) {
+            SLog.log(SLog.Error, "CommGPSThread", "while: IOException");
+        }
+    }
+
+    /**
+     * Prepares the aiding data saved at the last shutdown for injection: an
+     * AID-INI with the last position and the RTC time, followed by the saved
+     * AID-HUI, AID-ALM and AID-EPH frames.
+     */
+    private void loadAiding() {
+        if (!Settings.getInstance().getSetting("aiding", true)) {
+            return;
+        }
+        byte[] saved = aidingRecord.get(1);
+        if (saved == null || saved.length <= aidingHeader) {
+            return;
+        }
+
+        int[] ini = new int[48];
+        int flags = 0;
+        if (saved[0] != 0) {
+            // lla, 1e-7 degrees and cm, 1 km accuracy
+            flags |= 0x01 | 0x20;
+            putU4(ini, 0, getInt(saved, 1) * 10L);
+            putU4(ini, 4, getInt(saved, 5) * 10L);
+            putU4(ini, 8, getInt(saved, 9));
+            putU4(ini, 12, 100000);
+        }
+        long gps = System.currentTimeMillis() - GPS_EPOCH * 1000L + GPS_LEAP_SECONDS * 1000L;
+        if (gps > 0) {
+            // RTC time, 10 s accuracy
+            flags |= 0x02;
+            int week = (int) (gps / (7L * 86400000L));
+            ini[18] = week & 0xFF;
+            ini[19] = week >> 8;
+            putU4(ini, 20, gps % (7L * 86400000L));
+            putU4(ini, 28, 10000);
+        }
+        putU4(ini, 44, flags);
+        byte[] frame = UBXParser.frame(CLASS_AID, AID_INI, ini);
+
+        aiding = new byte[frame.length + saved.length - aidingHeader];
+        System.arraycopy(frame, 0, aiding, 0, frame.length);
+        System.arraycopy(saved, aidingHeader, aiding, frame.length, saved.length - aidingHeader);
+        aidingOffset = 0;
+        SLog.log(SLog.Debug, "CommGPSThread", "aiding " + aiding.length + " bytes");
+    }
+
+    /**
+     * Sends the next aiding frame, one per loop so reading is not held up.
+     */
+    private void sendAiding(OutputStream outData) throws IOException {
+        int length = UBXParser.OVERHEAD
+                + ((aiding[aidingOffset + 4] & 0xFF) | (aiding[aidingOffset + 5] & 0xFF) << 8);
+        if (aidingOffset + length > aiding.length) {
+            aiding = null;
+            return;
+        }
+        outData.write(aiding, aidingOffset, length);
+        aidingOffset += length;
+        if (aidingOffset + UBXParser.OVERHEAD > aiding.length) {
+            aiding = null;
+        }
+    }
 
-                    if (line.indexOf("$GPRMC") >= 0) {
-                        LocationManager.getInstance().processGPRMCString(line);
-                    } else if (line.indexOf("$GPGGA") >= 0) {
-                        LocationManager.getInstance().processGPGGAString(line);
+    /**
+     * Polls ephemerides, almanac and health/UTC/ionosphere parameters from
+     * the receiver and saves them with the last position, so the next start
+     * is a hot start. The periodic output is switched off first and the
+     * ephemerides are polled first, so a short timeout cuts off the least
+     * useful data. Keeps the previous data if it holds more ephemerides.
+     */
+    private void saveAiding(InputStream inData, OutputStream outData) throws IOException {
+        if (!Settings.getInstance().getSetting("aiding", true)) {
+            return;
+        }
+        if (sleeping) {
+            sleeping = false;
+            init_GPS(outData);
+        }
+        // the poll reply alone needs most of the port
+        outData.write(UBXParser.frame(0x06, 0x01, new int[]{RMC[0], RMC[1], 0}));
+        outData.write(UBXParser.frame(0x06, 0x01, new int[]{GGA[0], GGA[1], 0}));
+        outData.write(UBXParser.frame(0x06, 0x01, new int[]{NAV_PVT[0], NAV_PVT[1], 0}));
+        outData.write(UBXParser.frame(CLASS_AID, AID_EPH, new int[0]));
+        outData.write(UBXParser.frame(CLASS_AID, AID_ALM, new int[0]));
+        outData.write(UBXParser.frame(CLASS_AID, AID_HUI, new int[0]));
+
+        ByteArrayOutputStream frames = new ByteArrayOutputStream(4096);
+        Location location = LocationManager.getInstance().getState().location;
+        frames.write(location != null ? 1 : 0);
+        writeInt(frames, location != null ? location.latitude : 0);
+        writeInt(frames, location != null ? location.longitude : 0);
+        writeInt(frames, location != null ? location.altitude : 0);
+
+        int hui = 0;
+        int almanacs = 0;
+        int ephemerides = 0;
+        int saved = 0;
+        long end = System.currentTimeMillis() + aidingTimeout;
+        while (System.currentTimeMillis() < end
+                && (hui == 0 || almanacs < satellites || ephemerides < satellites)) {
+            AppMain.getInstance().userwareWatchDogTask.gpsRunning = true;
+            AppMain.getInstance().gpio6WatchDogTask.gpsRunning = true;
+
+            if (reader.fill(inData) > 0) {
+                int kind;
+                while ((kind = reader.next()) >= 0) {
+                    if (kind != NMEAReader.FRAME) {
+                        continue;
+                    }
+                    byte[] bytes = reader.bytes;
+                    int offset = reader.offset;
+                    int length = reader.length;
+                    if (bytes[offset + 2] != CLASS_AID || !UBXParser.check(bytes, offset, length)) {
+                        continue;
+                    }
+                    int id = bytes[offset + 3] & 0xFF;
+                    boolean data = length - UBXParser.OVERHEAD > AID_EMPTY;
+                    if (id == AID_HUI) {
+                        hui++;
+                    } else if (id == AID_ALM) {
+                        almanacs++;
+                    } else if (id == AID_EPH) {
+                        ephemerides++;
+                        if (data) {
+                            saved++;
+                        }
                     } else {
-                        // ignore
+                        continue;
+                    }
+                    if (id == AID_HUI || data) {
+                        frames.write(bytes, offset, length);
                     }
                 }
+            } else {
                 try {
                     Thread.sleep(loopSleep);
                 } catch (InterruptedException ie) {
                     // ignore
                 }
             }
+        }
 
-            is.close();
-            os.close();
-            connGPS.close();
+        int stored = countEphemerides(aidingRecord.get(1));
+        SLog.log(SLog.Debug, "CommGPSThread", "aiding hui " + hui + " alm " + almanacs
+                + " eph " + ephemerides + " saved " + saved + " stored " + stored);
+        if (saved > 0 && saved >= stored) {
+            aidingRecord.set(1, frames.toByteArray());
+        }
+    }
 
-        } catch (IOException ioe) {
-            SLog.log(SLog.Error, "CommGPSThread", "while: IOException");
+    /**
+     * Returns the number of AID-EPH frames with data in saved aiding data.
+     */
+    private static int countEphemerides(byte[] saved) {
+        int count = 0;
+        if (saved == null) {
+            return count;
+        }
+        int offset = aidingHeader;
+        while (offset + UBXParser.OVERHEAD <= saved.length) {
+            int payload = (saved[offset + 4] & 0xFF) | (saved[offset + 5] & 0xFF) << 8;
+            if ((saved[offset + 3] & 0xFF) == AID_EPH && payload > AID_EMPTY) {
+                count++;
+            }
+            offset += UBXParser.OVERHEAD + payload;
+        }
+        return count;
+    }
+
+    private static void putU4(int[] data, int offset, long value) {
+        for (int i = 0; i < 4; i++) {
+            data[offset + i] = (int) (value >> (8 * i)) & 0xFF;
+        }
+    }
+
+    private static int getInt(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFF) << 24
+                | (bytes[offset + 1] & 0xFF) << 16
+                | (bytes[offset + 2] & 0xFF) << 8
+                | (bytes[offset + 3] & 0xFF);
+    }
+
+    private static void writeInt(ByteArrayOutputStream stream, int value) {
+        stream.write(value >> 24);
+        stream.write(value >> 16);
+        stream.write(value >> 8);
+        stream.write(value);
+    }
+
+    /**
+     * Puts the receiver into power save while the device is parked and the
+     * motion sensor is on, wakes it up on motion or shortly before the next
+     * minInterval report is due.
+     *
+     * Whether the device is parked is decided by GPSProcessorThread on a
+     * SLEEP request, this thread acts on the grant.
+     */
+    private void schedule(OutputStream outData, boolean pvt) throws IOException {
+        long now = System.currentTimeMillis();
+        GPSProcessorThread processor = GPSProcessorThread.getInstance();
+        if (sleeping) {
+            if (moved || now >= wakeupMillis) {
+                SLog.log(SLog.Debug, "CommGPSThread", "wakeup " + (moved ? "motion" : "minInterval"));
+                sleeping = false;
+                if (moved) {
+                    moved = false;
+                    movedMillis = now;
+                }
+                init_GPS(outData);
+                init_output(outData, pvt);
+                processor.control(GPSProcessorThread.WAKEUP);
+            }
+        } else if (processor.getSleeps() != sleeps) {
+            sleeps = processor.getSleeps();
+            wakeupMillis = processor.getWakeupMillis();
+            if (moved) {
+                // motion while the grant was on its way
+                processor.control(GPSProcessorThread.WAKEUP);
+            } else {
+                SLog.log(SLog.Debug, "CommGPSThread", "sleep for " + (wakeupMillis - now) / 1000);
+                sleeping = true;
+                sleep_GPS(outData);
+            }
+        } else if (now - checkMillis >= 1000) {
+            checkMillis = now;
+            if (moved) {
+                moved = false;
+                movedMillis = now;
+            }
+            int gpsSleep = Settings.getInstance().getSetting("gpsSleep", 0);
+            if (gpsSleep > 0 && Settings.getInstance().getSetting("motion", 4) > 0
+                    && now - movedMillis >= gpsSleep * 1000L) {
+                processor.control(GPSProcessorThread.SLEEP);
+            }
         }
     }
 
@@ -151,6 +455,19 @@ public class CommGPSThread extends Thread {
 
     }
 
+    /**
+     * Switches the receiver output between RMC/GGA sentences and UBX NAV-PVT
+     * frames, one message per epoch on the current port.
+     */
+    private void init_output(OutputStream outData, boolean pvt) throws IOException {
+        SLog.log(SLog.Debug, "CommGPSThread", "output " + (pvt ? "NAV-PVT" : "RMC/GGA"));
+        int nmeaRate = pvt ? 0 : 1;
+        int pvtRate = pvt ? 1 : 0;
+        outData.write(UBXParser.frame(0x06, 0x01, new int[]{RMC[0], RMC[1], nmeaRate}));
+        outData.write(UBXParser.frame(0x06, 0x01, new int[]{GGA[0], GGA[1], nmeaRate}));
+        outData.write(UBXParser.frame(0x06, 0x01, new int[]{NAV_PVT[0], NAV_PVT[1], pvtRate}));
+    }
+
     public String returnchecksum(String word) {
 
         String formatString = word;
@@ -37,6 +37,8 @@ public class CommandProcessor {
     private final String pub = "pub";
     private final String unsub = "unsub";
     private final String mqtt = "mqtt";
+    private final String fence = "fence";
+    private final String history = "history";
 
     private final String[] authorizedCommands = {
         set,
@@ -56,7 +58,9 @@ public class CommandProcessor {
         sub,
         pub,
         unsub,
-        mqtt
+        mqtt,
+        fence,
+        history
     };
 
     private final String CRLF = "\r\n";
@@ -124,14 +128,14 @@ public class CommandProcessor {
             }
 
             if (!AppMain.getInstance().isOff()) {
-                String json = locationManager.getlastPayloadString("m");
-                if (json != null) {
+                byte[] payload = locationManager.getlastPayload("m");
+                if (payload != null) {
                     SocketGPRSThread.getInstance().put(
                             settings.getSetting("publish", "owntracks/gw/")
                             + settings.getSetting("clientID", MicroManager.getInstance().getIMEI()),
                             settings.getSetting("qos", 1),
                             settings.getSetting("retain", true),
-                            json.getBytes());
+                            payload);
                 }
             }
             return true;
@@ -208,6 +212,10 @@ public class CommandProcessor {
 
         } else if (command.equalsIgnoreCase(log)) {
             return logCommand(parameters);
+        } else if (command.equalsIgnoreCase(fence)) {
+            return fenceCommand(parameters);
+        } else if (command.equalsIgnoreCase(history)) {
+            return historyCommand(parameters);
         } else {
             message = message.concat("not implemented");
             return false;
@@ -251,6 +259,101 @@ public class CommandProcessor {
         return false;
     }
 
+    boolean fenceCommand(String[] parameters) {
+        message = "";
+        if (parameters.length == 1) {
+            message = message.concat(GeofenceManager.getInstance().toString());
+            return true;
+        } else if (parameters.length == 2) {
+            int equal = parameters[1].indexOf('=');
+            if (equal >= 1) {
+                String key = GeofenceManager.prefix + parameters[1].substring(0, equal);
+                Settings.getInstance().setSetting(key, parameters[1].substring(equal + 1));
+                return true;
+            }
+        }
+        message = message.concat("usage " + fence + " [<name>=[c,<lat>,<lon>,<radius>|p,<lat>,<lon>,<lat>,<lon>,<lat>,<lon>...]]");
+        return false;
+    }
+
+    boolean historyCommand(String[] parameters) {
+        message = "";
+        final int maxLines = 50;
+        long now = new Date().getTime() / 1000;
+        long from = now - 600;
+        long to = now;
+        int step = 0;
+        boolean upload = false;
+        int numbers = 0;
+
+        try {
+            for (int i = 1; i < parameters.length; i++) {
+                if (parameters[i].equalsIgnoreCase("upload")) {
+                    upload = true;
+                } else if (parameters[i].startsWith("step=")) {
+                    step = Integer.parseInt(parameters[i].substring(5));
+                } else {
+                    long value = Long.parseLong(parameters[i]);
+                    if (value < 0) {
+                        value += now;
+                    }
+                    if (numbers == 0) {
+                        from = value;
+                    } else if (numbers == 1) {
+                        to = value;
+                    } else {
+                        throw new NumberFormatException();
+                    }
+                    numbers++;
+                }
+            }
+        } catch (NumberFormatException nfe) {
+            message = message.concat("usage " + history + " [<from> [<to>]] [step=<seconds>] [upload]");
+            return false;
+        }
+
+        LocationHistory locationHistory = LocationHistory.getInstance();
+        if (!upload) {
+            StringBuffer buffer = new StringBuffer();
+            long last = locationHistory.read(from, to, step, maxLines, buffer);
+            message = message.concat(buffer.toString());
+            if (last >= 0 && last < to && locationHistory.read(last + 1, to, step, 1, new StringBuffer()) >= 0) {
+                message = message.concat("more from " + (last + 1) + CRLF);
+            }
+            return true;
+        }
+
+        Settings settings = Settings.getInstance();
+        String topic = settings.getSetting("publish", "owntracks/gw/")
+                + settings.getSetting("clientID", MicroManager.getInstance().getIMEI())
+                + "/history";
+        final int maxMessages = 20;
+        int messages = 0;
+        long last = from - 1;
+        boolean failed = false;
+        while (last < to && messages < maxMessages) {
+            StringBuffer buffer = new StringBuffer();
+            long next = locationHistory.read(last + 1, to, step, maxLines, buffer);
+            if (next < 0) {
+                break;
+            }
+            if (!SocketGPRSThread.getInstance().put(topic, settings.getSetting("qos", 1), false,
+                    buffer.toString().getBytes())) {
+                failed = true;
+                break;
+            }
+            messages++;
+            last = next;
+        }
+        message = message.concat("history uploaded in " + messages + " messages" + CRLF);
+        if (last >= from && last < to && locationHistory.read(last + 1, to, step, 1, new StringBuffer()) >= 0) {
+            message = message.concat("more from " + (last + 1) + CRLF);
+        } else if (failed) {
+            message = message.concat("more from " + from + CRLF);
+        }
+        return !failed;
+    }
+
     boolean outCommand(String[] parameters) {
         message = "";
         if (parameters.length == 3) {
@@ -341,11 +444,13 @@ public class CommandProcessor {
 
     boolean stateCommand(String[] parameters) {
         message = "NUMSAT=" + LocationManager.getInstance().getNumSat() + CRLF;
+        message = message.concat("NMEA=" + CommGPSThread.getInstance().getStatistics() + CRLF);
+        message = message.concat("GPSSLEEP=" + (CommGPSThread.getInstance().isSleeping() ? 1 : 0) + CRLF);
         message = message.concat("BEARER=" + Bearer.getInstance().getBearerState() + CRLF);
         message = message.concat("GPRS=" + (Bearer.getInstance().isGprsOn() ? 1 : 0) + CRLF);
 
         SocketGPRSThread s = SocketGPRSThread.getInstance();
-        message = message.concat("QSIZE=" + s.qSize() + CRLF);
+        message = message.concat("QSIZE=" + s.qSize() + (s.isBackfill() ? ",backfill" : "") + CRLF);
         message = message.concat("CONN=" + (s.isConnected() ? 1 : 0) + CRLF);
         message = message.concat("NETW=" + (s.isNetwork() ? 1 : 0) + CRLF);
         message = message.concat("QUAL=" + s.rssi + "," + s.ber + CRLF);
@@ -360,6 +465,7 @@ public class CommandProcessor {
             message = message.concat("TEMP1=" + sensors.temperatureString(sensors.temperatures[1]) + CRLF);
         }
 
+        message = message.concat("LAT=" + LatencyStats.getInstance().toString() + CRLF);
         message = message.concat("WAKEUP=" + AppMain.getInstance().wakeupMode + CRLF);
         message = message.concat("DATE=" + DateFormatter.isoString(new Date()) + CRLF);
         return true;
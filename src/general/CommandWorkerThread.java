@@ -0,0 +1,109 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package general;
+
+import java.util.Vector;
+
+/**
+ * Executes commands received via MQTT outside of the MQTT callback thread,
+ * so slow commands (exec, reconnect, log, ...) do not hold up acknowledges
+ * and deliveries of other messages. Responses are queued for publishing.
+ *
+ * @author Christoph Krey <krey.christoph@gmail.com>
+ */
+public class CommandWorkerThread extends Thread {
+
+    public boolean terminate = false;
+
+    private final int maxCommands = 8;
+    private final int idleSleep = 1000;
+    private final Vector commands;
+
+    private CommandWorkerThread() {
+        commands = new Vector();
+    }
+
+    public static CommandWorkerThread getInstance() {
+        return CommandWorkerThreadHolder.INSTANCE;
+    }
+
+    private static class CommandWorkerThreadHolder {
+
+        private static final CommandWorkerThread INSTANCE = new CommandWorkerThread();
+    }
+
+    class Command {
+
+        public String command;
+        public String replyTopic;
+    }
+
+    /**
+     * Queues a command for execution.
+     *
+     * @param command the command line as received
+     * @param replyTopic topic the response lines are published to
+     * @return false if the queue is full and the command was dropped
+     */
+    public boolean put(String command, String replyTopic) {
+        synchronized (commands) {
+            if (commands.size() >= maxCommands) {
+                SLog.log(SLog.Warning, "CommandWorker", "queue full, dropping " + command);
+                return false;
+            }
+            Command c = new Command();
+            c.command = command;
+            c.replyTopic = replyTopic;
+            commands.addElement(c);
+            commands.notify();
+        }
+        return true;
+    }
+
+    public void run() {
+        while (!terminate) {
+            Command c = null;
+            synchronized (commands) {
+                if (commands.isEmpty()) {
+                    try {
+                        commands.wait(idleSleep);
+                    } catch (InterruptedException ie) {
+                        //
+                    }
+                }
+                if (!commands.isEmpty()) {
+                    c = (Command) commands.elementAt(0);
+                    commands.removeElementAt(0);
+                }
+            }
+            if (c != null) {
+                execute(c);
+            }
+        }
+    }
+
+    private void execute(Command c) {
+        SLog.log(SLog.Debug, "CommandWorker", "execute " + c.command);
+
+        CommandProcessor commandProcessor = CommandProcessor.getInstance();
+        String response;
+        if (commandProcessor.execute(c.command, true)) {
+            response = commandProcessor.message;
+        } else {
+            response = "NACK: " + commandProcessor.message;
+        }
+
+        if (response.length() > 0) {
+            SLog.log(SLog.Informational, "CommandWorker", "response(" + response.length() + ") " + response);
+            String[] lines = StringFunc.split(response, "\r\n");
+            for (int i = 0; i < lines.length; i++) {
+                if (lines[i].length() > 0) {
+                    SocketGPRSThread.getInstance().put(c.replyTopic, 0, false, lines[i].getBytes());
+                }
+            }
+        }
+    }
+}
@@ -5,136 +5,191 @@
  */
 package general;
 
-import java.util.Calendar;
 import java.util.Date;
 
 /**
+ * Converts between GPS date and time fields, timestamps and the string forms
+ * used in logs, payloads and AT commands, all in UTC.
+ *
+ * Days are converted in closed form, without Calendar. The calendar fields of
+ * the last formatted day and the ISO string of the last formatted second are
+ * cached, as log lines are formatted many times per second.
  *
  * @author Christoph Krey <krey.christoph@gmail.com>
  */
 public class DateFormatter {
 
-    public static Date parse(String DDMMYY, String HHMMSS) {
-        long timeStamp = 0;
-
-        int sYear;
-        int sMonth;
-        int sDay;
-        int sHour;
-        int sMinute;
-        int sSecond;
-
-        try {
-            sDay = Integer.parseInt(DDMMYY.substring(0, 2));
-            sMonth = Integer.parseInt(DDMMYY.substring(2, 4));
-            sYear = Integer.parseInt(DDMMYY.substring(4));
-            sHour = Integer.parseInt(HHMMSS.substring(0, 2));
-            sMinute = Integer.parseInt(HHMMSS.substring(2, 4));
-            sSecond = Integer.parseInt(HHMMSS.substring(4));
-
-            if (sYear >= 0
-                    || sYear <= 99
-                    || sMonth >= 1
-                    || sMonth <= 12
-                    || sDay >= 1
-                    || (sDay <= 28 && sMonth == 2 && (sYear + 2000) % 4 != 0)
-                    || (sDay <= 29 && sMonth == 2 && (sYear + 2000) % 4 == 0)
-                    || (sDay <= 30 && (sMonth == 4 || sMonth == 6 || sMonth == 9 || sMonth == 11))
-                    || (sDay <= 31 && (sMonth == 1 || sMonth == 3 || sMonth == 5 || sMonth == 7 || sMonth == 8 || sMonth == 10 || sMonth == 12))
-                    || sHour >= 0
-                    || sHour <= 23
-                    || sMinute >= 0
-                    || sMinute <= 59
-                    || sSecond >= 0
-                    || sSecond <= 59) {
-                for (int year = 1970; year < (sYear + 2000); year++) {
-                    if (year % 4 == 0) {
-                        timeStamp += 366L * 24L * 3600L;
-                    } else {
-                        timeStamp += 365L * 24L * 3600L;
-                    }
-                }
-                for (int month = 1; month < sMonth; month++) {
-                    if (month == 4 || month == 6 || month == 9 || month == 11) {
-                        timeStamp += 30L * 24L * 3600L;
-                    } else if (month == 2) {
-                        if ((sYear + 2000) % 4 == 0) {
-                            timeStamp += 29L * 24L * 3600L;
-                        } else {
-                            timeStamp += 28L * 24L * 3600L;
-                        }
-                    } else {
-                        timeStamp += 31L * 24L * 3600L;
-                    }
-                }
-                timeStamp += (sDay - 1) * 24L * 3600L + sHour * 3600L + sMinute * 60L + sSecond;
-            } else {
-                SLog.log(SLog.Warning, "DateFormatter", "Illegal date/time " + DDMMYY + " " + HHMMSS);
-            }
-        } catch (NumberFormatException nfe) {
-            SLog.log(SLog.Error, "DateFormatter", "NumberFormatException " + DDMMYY + " " + HHMMSS);
+    private static final int[] daysInMonth = {31, 28, 31, 30, 31, 30, 31, 31, 30, 31, 30, 31};
+
+    /* calendar fields of the last converted day */
+    private static long cachedDay = Long.MIN_VALUE;
+    private static int cachedYear;
+    private static int cachedMonth;
+    private static int cachedDayOfMonth;
+
+    /* isoString of the last formatted second */
+    private static long isoSecond = Long.MIN_VALUE;
+    private static String iso;
+
+    /**
+     * @param ddmmyy date as received in RMC sentences, year 2000-2099
+     * @param hhmmss time as received in RMC sentences
+     * @return the date or null if a field is out of range
+     */
+    public static Date parse(int ddmmyy, int hhmmss) {
+        int day = ddmmyy / 10000;
+        int month = ddmmyy / 100 % 100;
+        int year = ddmmyy % 100 + 2000;
+        int hour = hhmmss / 10000;
+        int minute = hhmmss / 100 % 100;
+        int second = hhmmss % 100;
+
+        if (ddmmyy < 0 || ddmmyy > 999999 || hhmmss < 0
+                || month < 1 || month > 12
+                || day < 1 || day > lengthOfMonth(year, month)
+                || hour > 23 || minute > 59 || second > 60) {
+            return null;
+        }
+        long seconds = daysFromCivil(year, month, day) * 86400L
+                + hour * 3600L + minute * 60L + second;
+        return new Date(seconds * 1000L);
+    }
+
+    /**
+     * Days since 1970-01-01 of a date in the proleptic Gregorian calendar.
+     */
+    static long daysFromCivil(int year, int month, int day) {
+        // years starting in March, so the leap day is the last day of a year
+        int y = month <= 2 ? year - 1 : year;
+        int era = (y >= 0 ? y : y - 399) / 400;
+        int yearOfEra = y - era * 400;
+        int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097L + dayOfEra - 719468L;
+    }
+
+    private static boolean isLeapYear(int year) {
+        return year % 4 == 0 && (year % 100 != 0 || year % 400 == 0);
+    }
+
+    private static int lengthOfMonth(int year, int month) {
+        if (month == 2 && isLeapYear(year)) {
+            return 29;
+        }
+        return daysInMonth[month - 1];
+    }
+
+    /**
+     * Sets cachedYear, cachedMonth and cachedDayOfMonth to the date of the
+     * given day since 1970-01-01.
+     */
+    private static void civilFromDays(long days) {
+        if (days == cachedDay) {
+            return;
         }
-        return new Date(timeStamp * 1000L);
+        long z = days + 719468L;
+        long era = (z >= 0 ? z : z - 146096L) / 146097L;
+        int dayOfEra = (int) (z - era * 146097L);
+        int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        int mp = (5 * dayOfYear + 2) / 153;
+        int month = mp < 10 ? mp + 3 : mp - 9;
+        cachedDayOfMonth = dayOfYear - (153 * mp + 2) / 5 + 1;
+        cachedMonth = month;
+        cachedYear = (int) (yearOfEra + era * 400) + (month <= 2 ? 1 : 0);
+        cachedDay = days;
     }
 
-    public static String atString(Date date) {
-        Calendar cal = Calendar.getInstance();
-        cal.setTime(date);
-
-        String s = leadingZeroes(cal.get(Calendar.YEAR) - 2000, 2)
-                + "/" + leadingZeroes(cal.get(Calendar.MONTH) + 1, 2)
-                + "/" + leadingZeroes(cal.get(Calendar.DAY_OF_MONTH), 2)
-                + ","
-                + leadingZeroes(cal.get(Calendar.HOUR) + (cal.get(Calendar.AM_PM) == Calendar.PM ? 12 : 0), 2)
-                + ":" + leadingZeroes(cal.get(Calendar.MINUTE), 2)
-                + ":" + leadingZeroes(cal.get(Calendar.SECOND), 2);
-        return s;
+    private static long floorDiv(long value, long divisor) {
+        return value >= 0 ? value / divisor : -((-value + divisor - 1) / divisor);
     }
 
-    public static String isoString(Date date) {
-        Calendar cal = Calendar.getInstance();
-        cal.setTime(date);
-
-        int year = cal.get(Calendar.YEAR);
-        String s = ((year < 0) ? "-" : "")
-                + leadingZeroes(Math.abs(cal.get(Calendar.YEAR)), 4)
-                + leadingZeroes(cal.get(Calendar.MONTH) + 1, 2)
-                + leadingZeroes(cal.get(Calendar.DAY_OF_MONTH), 2)
-                + "T"
-                + leadingZeroes(cal.get(Calendar.HOUR) + (cal.get(Calendar.AM_PM) == Calendar.PM ? 12 : 0), 2)
-                + leadingZeroes(cal.get(Calendar.MINUTE), 2)
-                + leadingZeroes(cal.get(Calendar.SECOND), 2)
-                + "Z";
-        return s;
+    /**
+     * Returns yy/MM/dd,hh:mm:ss as used by AT+CCLK.
+     */
+    public static synchronized String atString(Date date) {
+        long seconds = floorDiv(date.getTime(), 1000);
+        civilFromDays(floorDiv(seconds, 86400));
+        int secondOfDay = (int) (seconds - floorDiv(seconds, 86400) * 86400);
+
+        char[] chars = new char[17];
+        digits(chars, 0, cachedYear % 100, 2);
+        chars[2] = '/';
+        digits(chars, 3, cachedMonth, 2);
+        chars[5] = '/';
+        digits(chars, 6, cachedDayOfMonth, 2);
+        chars[8] = ',';
+        digits(chars, 9, secondOfDay / 3600, 2);
+        chars[11] = ':';
+        digits(chars, 12, secondOfDay / 60 % 60, 2);
+        chars[14] = ':';
+        digits(chars, 15, secondOfDay % 60, 2);
+        return new String(chars);
+    }
+
+    /**
+     * Returns yyyyMMddThhmmssZ.
+     */
+    public static synchronized String isoString(Date date) {
+        long seconds = floorDiv(date.getTime(), 1000);
+        if (seconds == isoSecond) {
+            return iso;
+        }
+        civilFromDays(floorDiv(seconds, 86400));
+        int secondOfDay = (int) (seconds - floorDiv(seconds, 86400) * 86400);
+
+        char[] chars = new char[16];
+        digits(chars, 0, cachedYear, 4);
+        digits(chars, 4, cachedMonth, 2);
+        digits(chars, 6, cachedDayOfMonth, 2);
+        chars[8] = 'T';
+        digits(chars, 9, secondOfDay / 3600, 2);
+        digits(chars, 11, secondOfDay / 60 % 60, 2);
+        digits(chars, 13, secondOfDay % 60, 2);
+        chars[15] = 'Z';
+        iso = new String(chars);
+        isoSecond = seconds;
+        return iso;
     }
 
+    /**
+     * Returns hh:mm:ss.
+     */
     public static String isoTime(Date date) {
-        Calendar cal = Calendar.getInstance();
-        cal.setTime(date);
+        long seconds = floorDiv(date.getTime(), 1000);
+        int secondOfDay = (int) (seconds - floorDiv(seconds, 86400) * 86400);
 
-        String s = leadingZeroes(cal.get(Calendar.HOUR) + (cal.get(Calendar.AM_PM) == Calendar.PM ? 12 : 0), 2)
-                + ":" + leadingZeroes(cal.get(Calendar.MINUTE), 2)
-                + ":" + leadingZeroes(cal.get(Calendar.SECOND), 2);
-        return s;
+        char[] chars = new char[8];
+        digits(chars, 0, secondOfDay / 3600, 2);
+        chars[2] = ':';
+        digits(chars, 3, secondOfDay / 60 % 60, 2);
+        chars[5] = ':';
+        digits(chars, 6, secondOfDay % 60, 2);
+        return new String(chars);
     }
 
-    public static String isoDate(Date date) {
-        Calendar cal = Calendar.getInstance();
-        cal.setTime(date);
+    /**
+     * Returns yyyy-MM-dd.
+     */
+    public static synchronized String isoDate(Date date) {
+        civilFromDays(floorDiv(floorDiv(date.getTime(), 1000), 86400));
 
-        int year = cal.get(Calendar.YEAR);
-        String s = ((year < 0) ? "-" : "")
-                + leadingZeroes(Math.abs(cal.get(Calendar.YEAR)), 4)
-                + "-" + leadingZeroes(cal.get(Calendar.MONTH) + 1, 2)
-                + "-" + leadingZeroes(cal.get(Calendar.DAY_OF_MONTH), 2);
-        return s;
+        char[] chars = new char[10];
+        digits(chars, 0, cachedYear, 4);
+        chars[4] = '-';
+        digits(chars, 5, cachedMonth, 2);
+        chars[7] = '-';
+        digits(chars, 8, cachedDayOfMonth, 2);
+        return new String(chars);
     }
 
-    private static String leadingZeroes(int i, int length) {
-        String s = "" + i;
-        while (s.length() < length) {
-            s = "0" + s;
+    /**
+     * Writes value as exactly length decimal digits with leading zeroes.
+     */
+    private static void digits(char[] chars, int offset, int value, int length) {
+        for (int i = offset + length - 1; i >= offset; i--) {
+            chars[i] = (char) ('0' + value % 10);
+            value /= 10;
         }
-        return s;
     }
 }
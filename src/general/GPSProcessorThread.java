@@ -0,0 +1,201 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package general;
+
+/**
+ * Parses and processes the messages read by CommGPSThread. Processing a fix
+ * may write to flash, queue messages or run AT commands, which would stall
+ * the serial port if done by the reading thread.
+ *
+ * Messages are passed in a single producer, single consumer ring of fixed
+ * slots. Only CommGPSThread advances head and only this thread advances tail,
+ * so no lock is needed. When the ring is full, the newest message is dropped
+ * and counted.
+ *
+ * Putting the receiver to sleep and waking it up passes the ring as control
+ * messages, in order with the positions, so this thread is the only writer of
+ * the location state. A granted sleep is reported back by getSleeps() and
+ * getWakeupMillis(), positions are ignored until the wakeup message.
+ *
+ * @author Christoph Krey <krey.christoph@gmail.com>
+ */
+public class GPSProcessorThread extends Thread {
+
+    public boolean terminate = false;
+
+    /** control messages without payload, next to NMEAReader kinds */
+    public static final int SLEEP = 3;
+    public static final int WAKEUP = 4;
+
+    private static final int slots = 16; // power of 2
+    private static final int slotMask = slots - 1;
+    private static final int idleSleep = 1000;
+    /* seconds before a due minInterval report the receiver is woken up */
+    private static final int wakeupLead = 60;
+
+    private final byte[][] messages = new byte[slots][NMEAReader.maxLine];
+    private final int[] kinds = new int[slots];
+    private final int[] lengths = new int[slots];
+    /* free running, written by the producer only */
+    private volatile int head = 0;
+    /* free running, written by the consumer only */
+    private volatile int tail = 0;
+    private final Object signal = new Object();
+
+    /** messages dropped because the ring was full */
+    public int overruns = 0;
+
+    /* written by this thread only */
+    private boolean asleep = false;
+    private volatile long wakeupMillis = 0;
+    private volatile int sleeps = 0;
+
+    private final NMEAParser nmea = new NMEAParser();
+    private final UBXParser ubx = new UBXParser();
+
+    private GPSProcessorThread() {
+    }
+
+    public static GPSProcessorThread getInstance() {
+        return GPSProcessorThreadHolder.INSTANCE;
+    }
+
+    private static class GPSProcessorThreadHolder {
+
+        private static final GPSProcessorThread INSTANCE = new GPSProcessorThread();
+    }
+
+    /**
+     * Copies a message into the ring, called by CommGPSThread only.
+     *
+     * @param kind NMEAReader.SENTENCE or NMEAReader.FRAME
+     * @return false if the ring is full and the message was dropped
+     */
+    public boolean put(int kind, byte[] bytes, int offset, int length) {
+        if (head - tail == slots) {
+            overruns++;
+            return false;
+        }
+        int slot = head & slotMask;
+        System.arraycopy(bytes, offset, messages[slot], 0, length);
+        kinds[slot] = kind;
+        lengths[slot] = length;
+        // publishes the slot to the consumer
+        head++;
+        return true;
+    }
+
+    /**
+     * Puts a control message into the ring, waits for a free slot instead of
+     * dropping it. Called by CommGPSThread only.
+     *
+     * @param kind SLEEP or WAKEUP
+     */
+    public void control(int kind) {
+        while (head - tail == slots && !terminate) {
+            signal();
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException ie) {
+                //
+            }
+        }
+        int slot = head & slotMask;
+        kinds[slot] = kind;
+        lengths[slot] = 0;
+        head++;
+        signal();
+    }
+
+    /**
+     * Returns the number of sleep requests granted so far.
+     */
+    public int getSleeps() {
+        return sleeps;
+    }
+
+    /**
+     * Returns when the receiver is to be woken up for the last granted sleep.
+     */
+    public long getWakeupMillis() {
+        return wakeupMillis;
+    }
+
+    /**
+     * Wakes up the processing after a batch of messages was put.
+     */
+    public void signal() {
+        synchronized (signal) {
+            signal.notify();
+        }
+    }
+
+    /**
+     * Returns checksum errors of both parsers.
+     */
+    public int getErrors() {
+        return nmea.errors + ubx.errors;
+    }
+
+    public void run() {
+        while (!terminate) {
+            LocationManager.getInstance().applyRequests();
+            if (tail == head) {
+                synchronized (signal) {
+                    if (tail == head) {
+                        try {
+                            signal.wait(idleSleep);
+                        } catch (InterruptedException ie) {
+                            //
+                        }
+                    }
+                }
+                continue;
+            }
+
+            int slot = tail & slotMask;
+            process(kinds[slot], messages[slot], lengths[slot]);
+            // hands the slot back to the producer
+            tail++;
+        }
+    }
+
+    private void process(int kind, byte[] bytes, int length) {
+        if (kind == SLEEP) {
+            if (!asleep) {
+                long wakeup = LocationManager.getInstance().getWakeupMillis(wakeupLead);
+                if (wakeup != 0) {
+                    asleep = true;
+                    LocationManager.getInstance().sleep();
+                    wakeupMillis = wakeup;
+                    // publishes wakeupMillis to the reader
+                    sleeps++;
+                }
+            }
+        } else if (kind == WAKEUP) {
+            if (asleep) {
+                asleep = false;
+                LocationManager.getInstance().wakeup();
+            }
+        } else if (asleep) {
+            // left overs before the receiver went to sleep
+        } else if (kind == NMEAReader.SENTENCE) {
+            switch (nmea.parse(bytes, 0, length)) {
+                case NMEAParser.RMC:
+                    LocationManager.getInstance().processRMC(nmea);
+                    break;
+                case NMEAParser.GGA:
+                    LocationManager.getInstance().processGGA(nmea);
+                    break;
+                default:
+                    // ignore
+                    break;
+            }
+        } else if (ubx.parse(bytes, 0, length) == UBXParser.PVT) {
+            LocationManager.getInstance().processPVT(ubx);
+        }
+    }
+}
@@ -0,0 +1,378 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package general;
+
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.Vector;
+
+/**
+ * Checks fixes against circular and polygon regions and publishes OwnTracks
+ * transition events when a region is entered or left.
+ *
+ * Regions are defined by settings <code>fence.&lt;name&gt;</code> with value
+ * <code>c,lat,lon,radius</code> (radius in m) or
+ * <code>p,lat,lon,lat,lon,lat,lon,...</code>. They are kept in a grid index
+ * of about 1 km cells, so a fix is only tested against the regions touching
+ * its cell and the regions it is in. Which regions the device is in and
+ * when each region was first seen, published as wtst, survive reboots.
+ *
+ * @author Christoph Krey <krey.christoph@gmail.com>
+ */
+public class GeofenceManager {
+
+    public static final String prefix = "fence.";
+
+    /** grid cell size in microdegrees */
+    private static final int cellSize = 10000;
+    /** regions covering more cells are checked on every fix instead */
+    private static final int maxCells = 64;
+
+    /** meters per microdegree of latitude */
+    private static final double METERS = Location.EARTH_RADIUS * Math.PI / 180000000.0;
+
+    private final PersistentRecord persistentRecord;
+
+    private int generation = -1;
+    private boolean restored = false;
+    private Vector regions = new Vector();
+    private Hashtable grid = new Hashtable();
+    private Vector large = new Vector();
+    /* name to wtst of each region, null until restored */
+    private Hashtable created = null;
+
+    class Region {
+
+        String name;
+        long wtst;
+        boolean circle;
+        int latitude;
+        int longitude;
+        double radius;
+        double cosLatitude;
+        int[] latitudes;
+        int[] longitudes;
+        int minLatitude;
+        int maxLatitude;
+        int minLongitude;
+        int maxLongitude;
+        boolean inside;
+
+        boolean contains(Location location) {
+            if (location.latitude < minLatitude || location.latitude > maxLatitude
+                    || location.longitude < minLongitude || location.longitude > maxLongitude) {
+                return false;
+            }
+            if (circle) {
+                double dx = (location.longitude - longitude) * cosLatitude * METERS;
+                double dy = (location.latitude - latitude) * METERS;
+                return dx * dx + dy * dy <= radius * radius;
+            }
+
+            // ray casting, in integer microdegrees
+            boolean in = false;
+            int x = location.longitude;
+            int y = location.latitude;
+            for (int i = 0, j = latitudes.length - 1; i < latitudes.length; j = i++) {
+                int yi = latitudes[i];
+                int yj = latitudes[j];
+                if ((yi > y) != (yj > y)) {
+                    long left = (long) (x - longitudes[i]) * (yj - yi);
+                    long right = (long) (longitudes[j] - longitudes[i]) * (y - yi);
+                    if (yj > yi ? left < right : left > right) {
+                        in = !in;
+                    }
+                }
+            }
+            return in;
+        }
+    }
+
+    private GeofenceManager() {
+        persistentRecord = new PersistentRecord("GeofenceManager");
+    }
+
+    public static GeofenceManager getInstance() {
+        return GeofenceManagerHolder.INSTANCE;
+    }
+
+    private static class GeofenceManagerHolder {
+
+        private static final GeofenceManager INSTANCE = new GeofenceManager();
+    }
+
+    /**
+     * Checks a fix against all regions near it and publishes transitions.
+     */
+    public synchronized void check(Location location) {
+        load();
+        if (regions.isEmpty()) {
+            return;
+        }
+
+        Vector candidates = (Vector) grid.get(new Long(cell(location.latitude, location.longitude)));
+        boolean changed = false;
+        changed |= check(location, candidates);
+        changed |= check(location, large);
+        // regions we are in, but which do not touch the current cell
+        for (int i = 0; i < regions.size(); i++) {
+            Region region = (Region) regions.elementAt(i);
+            if (region.inside && !region.contains(location)) {
+                region.inside = false;
+                publish(region, location, "leave");
+                changed = true;
+            }
+        }
+        if (changed) {
+            persist();
+        }
+    }
+
+    private boolean check(Location location, Vector candidates) {
+        boolean changed = false;
+        if (candidates != null) {
+            for (int i = 0; i < candidates.size(); i++) {
+                Region region = (Region) candidates.elementAt(i);
+                boolean inside = region.contains(location);
+                if (inside != region.inside) {
+                    region.inside = inside;
+                    publish(region, location, inside ? "enter" : "leave");
+                    changed = true;
+                }
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Returns one line per region with its name and whether the device is in
+     * it.
+     */
+    public synchronized String toString() {
+        load();
+        StringBuffer buffer = new StringBuffer();
+        for (int i = 0; i < regions.size(); i++) {
+            Region region = (Region) regions.elementAt(i);
+            buffer.append(region.name);
+            buffer.append(region.inside ? " in\r\n" : " out\r\n");
+        }
+        return buffer.toString();
+    }
+
+    private void publish(Region region, Location location, String event) {
+        SLog.log(SLog.Informational, "GeofenceManager", event + " " + region.name);
+
+        StringBuffer json = new StringBuffer(160);
+        json.append("{\"_type\":\"transition\",\"t\":\"c\",\"tid\":\"");
+        json.append(LocationManager.getInstance().getTid());
+        json.append("\",\"tst\":\"").append(location.date.getTime() / 1000);
+        json.append("\",\"lat\":\"");
+        StringFunc.appendDecimal(json, location.latitude, 6);
+        json.append("\",\"lon\":\"");
+        StringFunc.appendDecimal(json, location.longitude, 6);
+        json.append("\",\"acc\":").append((location.accuracy + 50) / 100);
+        json.append(",\"wtst\":").append(region.wtst);
+        json.append(",\"event\":\"").append(event);
+        json.append("\",\"desc\":\"").append(region.name);
+        json.append("\"}");
+
+        LocationManager.getInstance().sendAny("/event", false, json.toString().getBytes());
+    }
+
+    /**
+     * (Re-)builds regions and index when the settings changed.
+     */
+    private void load() {
+        int current = Settings.getInstance().getGeneration();
+        if (current == generation) {
+            return;
+        }
+        generation = current;
+
+        Vector inside = restore();
+        regions = new Vector();
+        grid = new Hashtable();
+        large = new Vector();
+
+        Hashtable previous = restoreCreated();
+        created = new Hashtable();
+        boolean changed = false;
+        Settings settings = Settings.getInstance();
+        String[] keys = settings.keys(prefix);
+        for (int i = 0; i < keys.length; i++) {
+            Region region = parse(keys[i].substring(prefix.length()), settings.getSetting(keys[i], ""));
+            if (region != null) {
+                Long wtst = (Long) previous.get(region.name);
+                if (wtst == null) {
+                    wtst = new Long(System.currentTimeMillis() / 1000);
+                    changed = true;
+                }
+                region.wtst = wtst.longValue();
+                created.put(region.name, wtst);
+                region.inside = inside.contains(region.name);
+                regions.addElement(region);
+                index(region);
+            }
+        }
+        if (changed || created.size() != previous.size()) {
+            persistCreated();
+        }
+        SLog.log(SLog.Debug, "GeofenceManager", "regions " + regions.size() + " large " + large.size());
+    }
+
+    private Region parse(String name, String definition) {
+        String[] values = StringFunc.split(definition, ",");
+        Region region = new Region();
+        region.name = name;
+        try {
+            if (values.length == 4 && values[0].equalsIgnoreCase("c")) {
+                region.circle = true;
+                region.latitude = (int) StringFunc.parseDecimal(values[1], 6);
+                region.longitude = (int) StringFunc.parseDecimal(values[2], 6);
+                region.radius = StringFunc.parseDecimal(values[3], 0);
+                region.cosLatitude = Math.cos(Math.toRadians(region.latitude / 1000000.0));
+                int dLat = (int) (region.radius / METERS) + 1;
+                int dLon = region.cosLatitude > 0.01 ? (int) (dLat / region.cosLatitude) + 1 : 180000000;
+                region.minLatitude = region.latitude - dLat;
+                region.maxLatitude = region.latitude + dLat;
+                region.minLongitude = region.longitude - dLon;
+                region.maxLongitude = region.longitude + dLon;
+                return region;
+            } else if (values.length >= 7 && values.length % 2 == 1 && values[0].equalsIgnoreCase("p")) {
+                int n = values.length / 2;
+                region.latitudes = new int[n];
+                region.longitudes = new int[n];
+                region.minLatitude = Integer.MAX_VALUE;
+                region.maxLatitude = Integer.MIN_VALUE;
+                region.minLongitude = Integer.MAX_VALUE;
+                region.maxLongitude = Integer.MIN_VALUE;
+                for (int i = 0; i < n; i++) {
+                    int lat = (int) StringFunc.parseDecimal(values[1 + 2 * i], 6);
+                    int lon = (int) StringFunc.parseDecimal(values[2 + 2 * i], 6);
+                    region.latitudes[i] = lat;
+                    region.longitudes[i] = lon;
+                    region.minLatitude = Math.min(region.minLatitude, lat);
+                    region.maxLatitude = Math.max(region.maxLatitude, lat);
+                    region.minLongitude = Math.min(region.minLongitude, lon);
+                    region.maxLongitude = Math.max(region.maxLongitude, lon);
+                }
+                return region;
+            }
+        } catch (NumberFormatException nfe) {
+            //
+        }
+        SLog.log(SLog.Warning, "GeofenceManager", "invalid " + prefix + name + "=" + definition);
+        return null;
+    }
+
+    private void index(Region region) {
+        int minLat = floor(region.minLatitude);
+        int maxLat = floor(region.maxLatitude);
+        int minLon = floor(region.minLongitude);
+        int maxLon = floor(region.maxLongitude);
+        if ((long) (maxLat - minLat + 1) * (maxLon - minLon + 1) > maxCells) {
+            large.addElement(region);
+            return;
+        }
+        for (int lat = minLat; lat <= maxLat; lat++) {
+            for (int lon = minLon; lon <= maxLon; lon++) {
+                Long key = new Long(key(lat, lon));
+                Vector cell = (Vector) grid.get(key);
+                if (cell == null) {
+                    cell = new Vector(4);
+                    grid.put(key, cell);
+                }
+                cell.addElement(region);
+            }
+        }
+    }
+
+    private static int floor(int microdegrees) {
+        if (microdegrees < 0) {
+            return -((-microdegrees + cellSize - 1) / cellSize);
+        }
+        return microdegrees / cellSize;
+    }
+
+    private static long key(int latCell, int lonCell) {
+        return ((long) latCell << 32) | (lonCell & 0xFFFFFFFFL);
+    }
+
+    private static long cell(int latitude, int longitude) {
+        return key(floor(latitude), floor(longitude));
+    }
+
+    /**
+     * Returns the names of the regions the device was in, as persisted.
+     */
+    private Vector restore() {
+        Vector names = new Vector();
+        if (restored) {
+            // reload after a settings change, keep the current state
+            for (int i = 0; i < regions.size(); i++) {
+                Region region = (Region) regions.elementAt(i);
+                if (region.inside) {
+                    names.addElement(region.name);
+                }
+            }
+            return names;
+        }
+        restored = true;
+        byte[] bytes = persistentRecord.get(1);
+        if (bytes != null && bytes.length > 0) {
+            String[] strings = StringFunc.split(new String(bytes), "\n");
+            for (int i = 0; i < strings.length; i++) {
+                if (strings[i].length() > 0) {
+                    names.addElement(strings[i]);
+                }
+            }
+        }
+        return names;
+    }
+
+    private Hashtable restoreCreated() {
+        if (created != null) {
+            return created;
+        }
+        Hashtable table = new Hashtable();
+        byte[] bytes = persistentRecord.get(2);
+        if (bytes != null && bytes.length > 0) {
+            String[] strings = StringFunc.split(new String(bytes), "\n");
+            for (int i = 0; i < strings.length; i++) {
+                int equal = strings[i].lastIndexOf('=');
+                if (equal > 0) {
+                    try {
+                        table.put(strings[i].substring(0, equal),
+                                new Long(Long.parseLong(strings[i].substring(equal + 1))));
+                    } catch (NumberFormatException nfe) {
+                        //
+                    }
+                }
+            }
+        }
+        return table;
+    }
+
+    private void persistCreated() {
+        StringBuffer buffer = new StringBuffer();
+        for (Enumeration e = created.keys(); e.hasMoreElements();) {
+            String name = (String) e.nextElement();
+            buffer.append(name).append('=').append(created.get(name)).append('\n');
+        }
+        persistentRecord.set(2, buffer.toString().getBytes());
+    }
+
+    private void persist() {
+        StringBuffer buffer = new StringBuffer();
+        for (int i = 0; i < regions.size(); i++) {
+            Region region = (Region) regions.elementAt(i);
+            if (region.inside) {
+                buffer.append(region.name).append('\n');
+            }
+        }
+        persistentRecord.set(1, buffer.toString().getBytes());
+    }
+}
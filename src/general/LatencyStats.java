@@ -0,0 +1,117 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package general;
+
+/**
+ * Collects the time messages spend in each stage between creation and
+ * acknowledgement by the broker as coarse histograms.
+ *
+ * Stages are: proc (created to queued), queue (queued to taken from the
+ * queue), send (taken to written to the socket), ack (written to
+ * acknowledged) and total (created to acknowledged).
+ *
+ * @author Christoph Krey <krey.christoph@gmail.com>
+ */
+public class LatencyStats {
+
+    public static final int PROC = 0;
+    public static final int QUEUE = 1;
+    public static final int SEND = 2;
+    public static final int ACK = 3;
+    public static final int TOTAL = 4;
+
+    private static final String[] stageNames = {"proc", "queue", "send", "ack", "total"};
+
+    /**
+     * Upper bounds of the histogram buckets in milliseconds, the last bucket
+     * holds everything above the last bound.
+     */
+    private static final long[] bounds = {100L, 1000L, 10000L, 60000L, 600000L, 3600000L};
+
+    private final int[][] buckets;
+    private final long[] max;
+
+    private LatencyStats() {
+        buckets = new int[stageNames.length][bounds.length + 1];
+        max = new long[stageNames.length];
+    }
+
+    public static LatencyStats getInstance() {
+        return LatencyStatsHolder.INSTANCE;
+    }
+
+    private static class LatencyStatsHolder {
+
+        private static final LatencyStats INSTANCE = new LatencyStats();
+    }
+
+    /**
+     * Records the duration between two stamps, ignoring unknown stamps.
+     */
+    public synchronized void record(int stage, long from, long to) {
+        if (from <= 0 || to <= 0) {
+            return;
+        }
+        long millis = to - from;
+        if (millis < 0) {
+            millis = 0;
+        }
+        int bucket = 0;
+        while (bucket < bounds.length && millis >= bounds[bucket]) {
+            bucket++;
+        }
+        buckets[stage][bucket]++;
+        if (millis > max[stage]) {
+            max[stage] = millis;
+        }
+    }
+
+    /**
+     * Records all stages of one delivered message.
+     */
+    public void record(long created, long queued, long dequeued, long written, long acked) {
+        record(PROC, created, queued);
+        record(QUEUE, queued, dequeued);
+        record(SEND, dequeued, written);
+        record(ACK, written, acked);
+        record(TOTAL, created, acked);
+    }
+
+    public synchronized void reset() {
+        for (int stage = 0; stage < stageNames.length; stage++) {
+            for (int bucket = 0; bucket <= bounds.length; bucket++) {
+                buckets[stage][bucket] = 0;
+            }
+            max[stage] = 0;
+        }
+    }
+
+    /**
+     * Returns the histograms as
+     * <code>stage=c0,c1,c2,c3,c4,c5,c6/max</code> separated by blanks, with
+     * buckets &lt;0.1s, &lt;1s, &lt;10s, &lt;1m, &lt;10m, &lt;1h, &gt;=1h
+     * and the maximum in milliseconds.
+     */
+    public synchronized String toString() {
+        StringBuffer buffer = new StringBuffer();
+        for (int stage = 0; stage < stageNames.length; stage++) {
+            if (stage > 0) {
+                buffer.append(' ');
+            }
+            buffer.append(stageNames[stage]);
+            buffer.append('=');
+            for (int bucket = 0; bucket <= bounds.length; bucket++) {
+                if (bucket > 0) {
+                    buffer.append(',');
+                }
+                buffer.append(buckets[stage][bucket]);
+            }
+            buffer.append('/');
+            buffer.append(max[stage]);
+        }
+        return buffer.toString();
+    }
+}
@@ -8,70 +8,195 @@ package general;
 import java.util.Date;
 
 /**
+ * A fix in fixed-point units, as delivered by the NMEA and UBX parsers.
  *
  * @author Christoph Krey <krey.christoph@gmail.com>
  */
 public class Location {
 
     public Date date;
-    public double longitude;
-    public double latitude;
-    public double course;
-    public double speed;
-    public double altitude;
+    /** longitude in microdegrees */
+    public int longitude;
+    /** latitude in microdegrees */
+    public int latitude;
+    /** course in decidegrees */
+    public int course;
+    /** speed in cm/s */
+    public int speed;
+    /** altitude in cm */
+    public int altitude;
+    /** horizontal accuracy in cm, 0 if unknown */
+    public int accuracy;
     public double incrementalDistance;
 
+    /** mean earth radius in m */
+    static final double EARTH_RADIUS = 6371008.8;
+
+    /** radians per microdegree */
+    private static final double RADIANS = Math.PI / 180000000.0;
+
+    /** meters per microdegree of latitude */
+    private static final double METERS = EARTH_RADIUS * RADIANS;
+
+    /**
+     * Largest latitude or longitude difference in radians (about 30 km) for
+     * which the equirectangular approximation is used, its error stays well
+     * below 1 m there.
+     */
+    private static final double SHORT_HOP = 0.005;
+
+    private double cosLatitude = Double.NaN;
+
     /**
-     * arcus cosinus implementation using Newton's iterative method
+     * Returns a copy of this fix, for handing it to other threads while this
+     * one may still be changed.
+     */
+    Location copy() {
+        Location location = new Location();
+        location.date = date;
+        location.longitude = longitude;
+        location.latitude = latitude;
+        location.course = course;
+        location.speed = speed;
+        location.altitude = altitude;
+        location.accuracy = accuracy;
+        location.incrementalDistance = incrementalDistance;
+        return location;
+    }
+
+    /**
+     * arcus cosinus
      *
-     * @param a the angle in radians
-     * @return the arcus cosinus of a
+     * @param a the cosinus
+     * @return the angle in radians
      */
-    double acos(double asin) {
-        return -1 * (asin - Math.PI / 2);
+    static double acos(double a) {
+        return Math.PI / 2 - asin(a);
     }
 
     /**
-     * arcus sinus implementation using Newton's iterative method
+     * arcus sinus implementation using Newton's iterative method, CLDC has no
+     * Math.asin. Arguments above sin(45 deg) are reduced via
+     * asin(a) = pi/2 - 2 asin(sqrt((1 - a) / 2)) to keep Newton away from the
+     * flat part of sin.
      *
-     * @param a the angle in radians
-     * @return the arcus sinus of a
+     * @param a the sinus, -1..1
+     * @return the angle in radians, -pi/2..pi/2
      */
-    double asin(double a) {
-        double x = a;
-        do {
-            x -= (Math.sin(x) - a) / Math.cos(x);
-        } while (Math.abs(Math.sin(x) - a) > Math.E);
+    static double asin(double a) {
+        if (a < 0) {
+            return -asin(-a);
+        }
+        if (a >= 1.0) {
+            return Math.PI / 2;
+        }
+        if (a > 0.7071) {
+            return Math.PI / 2 - 2 * asin(Math.sqrt((1.0 - a) / 2));
+        }
+        double x = a + a * a * a / 6;
+        for (int i = 0; i < 8; i++) {
+            double dx = (Math.sin(x) - a) / Math.cos(x);
+            x -= dx;
+            if (Math.abs(dx) < 1e-15) {
+                break;
+            }
+        }
         return x;
     }
 
     /**
-     * Calculate the great circle distance between two points on the earth
-     * (specified in decimal degrees)
+     * Returns the cosinus of the latitude, computed once per location. A
+     * Location is not expected to change its latitude once measured.
+     */
+    double cosLatitude() {
+        if (Double.isNaN(cosLatitude)) {
+            cosLatitude = Math.cos(latitude * RADIANS);
+        }
+        return cosLatitude;
+    }
+
+    /**
+     * Calculate the distance of this location from the line segment between
+     * two other locations, in a plane tangent at the segment start. Meant for
+     * segments of a few km at most.
+     *
+     * @param from start of the segment
+     * @param to end of the segment
+     * @return the cross track distance in m
+     */
+    public double offTrack(Location from, Location to) {
+        double cos = from.cosLatitude();
+        double bx = (to.longitude - from.longitude) * cos * METERS;
+        double by = (to.latitude - from.latitude) * METERS;
+        double px = (longitude - from.longitude) * cos * METERS;
+        double py = (latitude - from.latitude) * METERS;
+
+        double length2 = bx * bx + by * by;
+        double t = 0.0;
+        if (length2 > 0.0) {
+            t = (px * bx + py * by) / length2;
+            if (t < 0.0) {
+                t = 0.0;
+            } else if (t > 1.0) {
+                t = 1.0;
+            }
+        }
+        double dx = px - t * bx;
+        double dy = py - t * by;
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+
+    /**
+     * Calculate the distance of this location from where another location
+     * would be at this location's time, moving on from there in a straight
+     * line at its speed and course (dead reckoning). Uses tst, vel and cog of
+     * from as published, in whole seconds, km/h and degrees, so consumers
+     * predict exactly the same position.
+     *
+     * @param from the location the prediction starts at
+     * @return the distance between actual and predicted position in m
+     */
+    public double predictionError(Location from) {
+        double seconds = date.getTime() / 1000.0 - from.date.getTime() / 1000;
+        double travelled = from.speed * 36 / 1000 / 3.6 * seconds;
+        double course = Math.toRadians(from.course / 10);
+
+        double dx = (longitude - from.longitude) * from.cosLatitude() * METERS
+                - travelled * Math.sin(course);
+        double dy = (latitude - from.latitude) * METERS
+                - travelled * Math.cos(course);
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+
+    /**
+     * Calculate the distance between two points on the earth. Short hops use the equirectangular approximation,
+     * longer ones the great circle distance by the haversine formula.
      *
      * @param location the other location which distance is to be calculated
      * @return the distance to the other location in m
      */
     public double distance(Location location) {
-        // convert decimal degrees to radians
-        double lon1 = Math.toRadians(longitude);
-        double lon2 = Math.toRadians(location.longitude);
-        double lat1 = Math.toRadians(latitude);
-        double lat2 = Math.toRadians(location.latitude);
+        double dlat = (location.latitude - latitude) * RADIANS;
+        double dlon = (location.longitude - longitude) * RADIANS;
+        if (dlon > Math.PI) {
+            dlon -= 2 * Math.PI;
+        } else if (dlon < -Math.PI) {
+            dlon += 2 * Math.PI;
+        }
 
-        // haversine formula
-        double dlon = lon2 - lon1;
-        double dlat = lat2 - lat1;
+        if (Math.abs(dlat) < SHORT_HOP && Math.abs(dlon) < SHORT_HOP) {
+            // cos of the mean latitude, good enough as the mean of the cosines
+            double x = dlon * (cosLatitude() + location.cosLatitude()) / 2;
+            return EARTH_RADIUS * Math.sqrt(x * x + dlat * dlat);
+        }
 
         // haversine formula
         double sinDlat = Math.sin(dlat / 2);
         double sinDlon = Math.sin(dlon / 2);
 
-        double a = sinDlat * sinDlat + Math.cos(lat1) * Math.cos(lat2) * sinDlon * sinDlon;
+        double a = sinDlat * sinDlat + cosLatitude() * location.cosLatitude() * sinDlon * sinDlon;
         double c = 2 * asin(Math.sqrt(a));
 
-        // 6367 km is the radius of the Earth
-        double m = 6367000.0 * c;
-        return m;
+        return EARTH_RADIUS * c;
     }
 }
@@ -0,0 +1,386 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package general;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import javax.microedition.io.Connector;
+import com.cinterion.io.file.FileConnection;
+
+/**
+ * Keeps every fix, independent of what is published, in a RAM ring of fixed
+ * size records. Full blocks of the ring are spilled to a file, which is
+ * rotated once it reaches half of historySize, so RAM, file and old file
+ * together cover the recent past. At shutdown the partial block is flushed
+ * too, padded with empty records (tst 0) to keep the file block aligned.
+ *
+ * Records are in time order, so each file is indexed by the timestamp of the
+ * first record of every block and queries only read the blocks they need.
+ *
+ * The RAM ring is guarded by this object and only held to copy records, the
+ * files and their index by fileLock, so a query reading flash never holds up
+ * add() on the GPS processing thread.
+ *
+ * Record layout, 16 bytes, big endian: tst (4, s), lat (4, 1e-6 deg),
+ * lon (4, 1e-6 deg), alt (2, m), vel (1, km/h), cog / 2 (1, deg).
+ *
+ * @author Christoph Krey <krey.christoph@gmail.com>
+ */
+public class LocationHistory {
+
+    private static final String url = "file:///a:/log/";
+    private static final String fileHistory = "history.bin";
+    private static final String fileOLD = "history.old";
+
+    private static final int recordSize = 16;
+    private static final int blockRecords = 128;
+    private static final int blockSize = recordSize * blockRecords;
+    private static final int ramBlocks = 4;
+
+    private final Object fileLock = new Object();
+
+    private final byte[] ram = new byte[blockSize * ramBlocks];
+    /* index of the oldest record in the ring, always at a block start */
+    private int ramStart = 0;
+    private int ramCount = 0;
+    /* block taken from the ring by add() and not yet in the file */
+    private byte[] pending = null;
+
+    /* first tst of each block, per file, null until built */
+    private int[] index = null;
+    private int indexCount = 0;
+    private int[] oldIndex = null;
+    private int oldIndexCount = 0;
+
+    private LocationHistory() {
+    }
+
+    public static LocationHistory getInstance() {
+        return LocationHistoryHolder.INSTANCE;
+    }
+
+    private static class LocationHistoryHolder {
+
+        private static final LocationHistory INSTANCE = new LocationHistory();
+    }
+
+    /**
+     * Adds a fix to the history.
+     */
+    public void add(Location location) {
+        byte[] block = null;
+        synchronized (this) {
+            if (ramCount == ram.length / recordSize) {
+                block = new byte[blockSize];
+                System.arraycopy(ram, ramStart * recordSize, block, 0, blockSize);
+                ramStart = (ramStart + blockRecords) % (ram.length / recordSize);
+                ramCount -= blockRecords;
+                if (Settings.getInstance().getSetting("historySize", 262144) > 0) {
+                    pending = block;
+                } else {
+                    block = null;
+                }
+            }
+            put(location);
+        }
+        if (block != null) {
+            synchronized (fileLock) {
+                spill(block);
+            }
+            synchronized (this) {
+                pending = null;
+            }
+        }
+    }
+
+    private void put(Location location) {
+        int offset = ((ramStart + ramCount) % (ram.length / recordSize)) * recordSize;
+        putInt(ram, offset, (int) (location.date.getTime() / 1000));
+        putInt(ram, offset + 4, location.latitude);
+        putInt(ram, offset + 8, location.longitude);
+        int alt = location.altitude / 100;
+        ram[offset + 12] = (byte) (alt >> 8);
+        ram[offset + 13] = (byte) alt;
+        ram[offset + 14] = (byte) Math.min(location.speed * 36 / 1000, 255);
+        ram[offset + 15] = (byte) (location.course / 20);
+        ramCount++;
+    }
+
+    /**
+     * Writes all records still in RAM to the history file and empties the
+     * ring.
+     */
+    public void flush() {
+        if (Settings.getInstance().getSetting("historySize", 262144) <= 0) {
+            return;
+        }
+        synchronized (fileLock) {
+            while (true) {
+                byte[] block;
+                synchronized (this) {
+                    if (ramCount == 0) {
+                        break;
+                    }
+                    block = new byte[blockSize];
+                    System.arraycopy(ram, ramStart * recordSize, block, 0,
+                            Math.min(ramCount, blockRecords) * recordSize);
+                    ramStart = (ramStart + blockRecords) % (ram.length / recordSize);
+                    ramCount = Math.max(ramCount - blockRecords, 0);
+                }
+                spill(block);
+            }
+        }
+        SLog.log(SLog.Debug, "LocationHistory", "flushed");
+    }
+
+    /**
+     * Appends records with from &lt;= tst &lt;= to as lines
+     * <code>tst,lat,lon,alt,vel,cog</code>, oldest first.
+     *
+     * @param step minimum seconds between two records, 0 for all
+     * @param max maximum number of records appended
+     * @return the tst of the last record appended, -1 if none
+     */
+    public long read(long from, long to, int step, int max, StringBuffer buffer) {
+        Cursor cursor = new Cursor();
+        cursor.from = from;
+        cursor.to = to;
+        cursor.step = step;
+        cursor.max = max;
+        cursor.buffer = buffer;
+
+        // copied before the files are read, a block spilled meanwhile is read
+        // twice and the cursor skips the duplicates
+        byte[] copy;
+        int count;
+        synchronized (this) {
+            int first = pending != null ? blockRecords : 0;
+            count = first + ramCount;
+            copy = new byte[count * recordSize];
+            if (pending != null) {
+                System.arraycopy(pending, 0, copy, 0, blockSize);
+            }
+            for (int i = 0; i < ramCount; i++) {
+                int offset = ((ramStart + i) % (ram.length / recordSize)) * recordSize;
+                System.arraycopy(ram, offset, copy, (first + i) * recordSize, recordSize);
+            }
+        }
+
+        if (Settings.getInstance().getSetting("historySize", 262144) > 0) {
+            synchronized (fileLock) {
+                if (index == null) {
+                    index = buildIndex(fileHistory);
+                    indexCount = index.length;
+                }
+                if (oldIndex == null) {
+                    oldIndex = buildIndex(fileOLD);
+                    oldIndexCount = oldIndex.length;
+                }
+                readFile(fileOLD, oldIndex, oldIndexCount, cursor);
+                readFile(fileHistory, index, indexCount, cursor);
+            }
+        }
+        byte[] record = new byte[recordSize];
+        for (int i = 0; i < count && cursor.count < cursor.max; i++) {
+            System.arraycopy(copy, i * recordSize, record, 0, recordSize);
+            if (!cursor.add(record)) {
+                break;
+            }
+        }
+        return cursor.count > 0 ? cursor.last : -1;
+    }
+
+    class Cursor {
+
+        long from;
+        long to;
+        int step;
+        int max;
+        int count = 0;
+        long last = -1;
+        StringBuffer buffer;
+
+        /**
+         * @return false once past the end of the range
+         */
+        boolean add(byte[] record) {
+            long tst = getInt(record, 0) & 0xFFFFFFFFL;
+            if (tst == 0) {
+                // padding of a flushed block
+                return true;
+            }
+            if (tst > to) {
+                return false;
+            }
+            if (tst < from || (count > 0 && tst < last + step) || tst <= last) {
+                return true;
+            }
+            buffer.append(tst);
+            buffer.append(',').append(getInt(record, 4));
+            buffer.append(',').append(getInt(record, 8));
+            buffer.append(',').append((short) ((record[12] & 0xFF) << 8 | (record[13] & 0xFF)));
+            buffer.append(',').append(record[14] & 0xFF);
+            buffer.append(',').append((record[15] & 0xFF) * 2);
+            buffer.append("\r\n");
+            last = tst;
+            count++;
+            return count < max;
+        }
+    }
+
+    private void readFile(String name, int[] blocks, int blocksCount, Cursor cursor) {
+        if (blocksCount == 0 || cursor.count >= cursor.max) {
+            return;
+        }
+        // last block starting at or before from
+        int first = 0;
+        int low = 0;
+        int high = blocksCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if ((blocks[mid] & 0xFFFFFFFFL) <= cursor.from) {
+                first = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        if ((blocks[first] & 0xFFFFFFFFL) > cursor.to) {
+            return;
+        }
+
+        try {
+            FileConnection fconn = (FileConnection) Connector.open(url + name, Connector.READ);
+            if (fconn.exists()) {
+                DataInputStream dis = fconn.openDataInputStream();
+                byte[] record = new byte[recordSize];
+                boolean more = true;
+                try {
+                    skipFully(dis, (long) first * blockSize);
+                    while (more && cursor.count < cursor.max) {
+                        dis.readFully(record);
+                        more = cursor.add(record);
+                    }
+                } catch (EOFException eofe) {
+                    //
+                }
+                dis.close();
+            }
+            fconn.close();
+        } catch (IOException ioe) {
+            SLog.log(SLog.Error, "LocationHistory", "read IOException " + name);
+        } catch (SecurityException se) {
+            SLog.log(SLog.Error, "LocationHistory", "read SecurityException " + name);
+        }
+    }
+
+    private int[] buildIndex(String name) {
+        int[] blocks = new int[0];
+        try {
+            FileConnection fconn = (FileConnection) Connector.open(url + name, Connector.READ);
+            if (fconn.exists()) {
+                int count = (int) (fconn.fileSize() / blockSize);
+                blocks = new int[count];
+                DataInputStream dis = fconn.openDataInputStream();
+                try {
+                    for (int i = 0; i < count; i++) {
+                        blocks[i] = dis.readInt();
+                        skipFully(dis, blockSize - 4);
+                    }
+                } catch (EOFException eofe) {
+                    SLog.log(SLog.Error, "LocationHistory", "index EOFException " + name);
+                    blocks = new int[0];
+                }
+                dis.close();
+            }
+            fconn.close();
+        } catch (IOException ioe) {
+            SLog.log(SLog.Error, "LocationHistory", "index IOException " + name);
+        } catch (SecurityException se) {
+            SLog.log(SLog.Error, "LocationHistory", "index SecurityException " + name);
+        }
+        SLog.log(SLog.Debug, "LocationHistory", "index " + name + " " + blocks.length);
+        return blocks;
+    }
+
+    /**
+     * Appends a block taken from the RAM ring to the history file in one
+     * write, rotates the file when it is full. Called with fileLock held.
+     */
+    private void spill(byte[] block) {
+        if (index == null) {
+            index = buildIndex(fileHistory);
+            indexCount = index.length;
+        }
+        try {
+            FileConnection fconn = (FileConnection) Connector.open(url + fileHistory);
+            if (!fconn.exists()) {
+                fconn.create();
+            }
+            OutputStream os = fconn.openOutputStream(fconn.fileSize());
+            os.write(block, 0, blockSize);
+            os.flush();
+            os.close();
+
+            if (indexCount == index.length) {
+                int[] larger = new int[index.length + 16];
+                System.arraycopy(index, 0, larger, 0, indexCount);
+                index = larger;
+            }
+            index[indexCount++] = getInt(block, 0);
+
+            if (fconn.fileSize() >= Settings.getInstance().getSetting("historySize", 262144) / 2) {
+                FileConnection fconn1 = (FileConnection) Connector.open(url + fileOLD);
+                if (fconn1.exists()) {
+                    fconn1.delete();
+                }
+                fconn1.close();
+                fconn.rename(fileOLD);
+                oldIndex = index;
+                oldIndexCount = indexCount;
+                index = new int[16];
+                indexCount = 0;
+            }
+            fconn.close();
+        } catch (IOException ioe) {
+            SLog.log(SLog.Error, "LocationHistory", "spill IOException");
+        } catch (SecurityException se) {
+            SLog.log(SLog.Error, "LocationHistory", "spill SecurityException");
+        }
+    }
+
+    /**
+     * skip() may skip fewer bytes than requested, repeat until done.
+     */
+    private static void skipFully(DataInputStream dis, long n) throws IOException {
+        while (n > 0) {
+            long skipped = dis.skip(n);
+            if (skipped <= 0) {
+                if (dis.read() < 0) {
+                    throw new EOFException();
+                }
+                skipped = 1;
+            }
+            n -= skipped;
+        }
+    }
+
+    private static void putInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >> 24);
+        bytes[offset + 1] = (byte) (value >> 16);
+        bytes[offset + 2] = (byte) (value >> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+
+    private static int getInt(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFF) << 24
+                | (bytes[offset + 1] & 0xFF) << 16
+                | (bytes[offset + 2] & 0xFF) << 8
+                | (bytes[offset + 3] & 0xFF);
+    }
+}
@@ -1,6 +1,7 @@
 package general;
 
 import java.util.Date;
+import java.util.Vector;
 import java.util.TimerTask;
 import java.util.Timer;
 import choral.io.UserLed;
@@ -19,8 +20,16 @@ public class LocationManager {
     final private UserLed userLed;
 
     private boolean stationary = false;
+    /* last fix added to the LocationHistory */
+    private Location historyLocation = null;
+    private long parkedMillis = 0;
     private boolean once = false;
 
+    /* what other threads see, replaced as a whole */
+    private volatile LocationState state = new LocationState(null, 0.0, false, 0);
+    /* set by zero(), applied on the GPS processing thread */
+    private volatile boolean zeroRequested = false;
+
     private Location lastLocation = null;
     private Location lastReportedLocation = null;
     private Location currentLocation = null;
@@ -28,20 +37,84 @@ public class LocationManager {
     private double trip = 0.0;
     private double incrementalDistance = 0.0;
 
-    private String rmc;
+    /* fixes since the last report, for track simplification */
+    private static final int maxTrack = 32;
+    private final Vector track = new Vector();
+
+    private boolean rmcValid = false;
+    private long rmcMillis = 0;
     private Date tempDate;
 
-    private double tempLon;
-    private double tempLat;
-    private double tempVel;
-    private double tempCog;
+    private int tempLon;
+    private int tempLat;
+    private int tempVel;
+    private int tempCog;
 
-    private String gga;
-    private double tempAlt;
+    private int tempAlt;
 
     private int numSat = 0;
 
     private PersistentRecord persistentRecord = null;
+    /* first byte of the binary trip record, never part of a decimal string */
+    private static final byte TRIP_VERSION = 1;
+    private double persistedTrip = 0.0;
+    private long persistedMillis = 0;
+
+    /* last position persisted with the trip, for coarse reports */
+    private boolean known = false;
+    private int knownLatitude;
+    private int knownLongitude;
+    private boolean coarseSent = false;
+
+    /* reporting slows down by this factor while the queue backs up */
+    private static final int maxBacklogFactor = 8;
+    /* tolerance in m per factor, for simplification under backlog */
+    private static final int backlogTolerance = 25;
+    private static final int backlogCheck = 10000;
+    private int backlogFactor = 1;
+    private long backlogMillis = 0;
+
+    /* payload format compiled from the settings */
+    private static final String[] fieldNames = {"course", "speed", "altitude", "accuracy", "distance", "trip", "battery"};
+    private static final int FIELD_COURSE = 1 << 0;
+    private static final int FIELD_SPEED = 1 << 1;
+    private static final int FIELD_ALTITUDE = 1 << 2;
+    private static final int FIELD_ACCURACY = 1 << 3;
+    private static final int FIELD_DISTANCE = 1 << 4;
+    private static final int FIELD_TRIP = 1 << 5;
+    private static final int FIELD_BATTERY = 1 << 6;
+
+    private int payloadGeneration = -1;
+    private boolean payloadCsv;
+    private boolean payloadBinary;
+    /* encoded once, copied into every text payload */
+    private byte[] payloadTid;
+    private int payloadFields;
+
+    /* text payload, reused for every fix like binaryBuffer */
+    private static final byte[] DIGITS = "0123456789abcdef".getBytes();
+    private byte[] textBuffer = new byte[256];
+    private int textLength;
+
+    /* binary payload, record kinds and state of the delta chain */
+    private static final byte BINARY_KEYFRAME = 'K';
+    private static final byte BINARY_DELTA = 'D';
+    private static final int maxBinaryTid = 32;
+    private final byte[] binaryBuffer = new byte[128];
+    private int binaryLength;
+    private String binaryTid;
+    private int binaryCount = 0;
+    /* seq, tst, lat, lon, alt and trip of the last record sent on the
+     * location topic, seq -1 if unknown, see sentBinary, and of the last one
+     * before the catch-up started */
+    private final long[] sentChain = {-1, 0, 0, 0, 0, 0};
+    private final long[] backfillChain = {-1, 0, 0, 0, 0, 0};
+    private int binarySequence = 0;
+    private long binaryTst;
+    private int binaryLatitude;
+    private int binaryLongitude;
+    private long binaryAltitude;
+    private long binaryTrip;
 
     private LocationManager() {
         fix = false;
@@ -50,15 +123,20 @@ public class LocationManager {
         startTimer();
         persistentRecord = new PersistentRecord("LocationManager");
         byte[] bytes = persistentRecord.get(1);
-        if (bytes != null) {
-            String string = new String(bytes);
+        if (bytes != null && bytes.length > 0 && bytes[0] == TRIP_VERSION) {
+            readTrip(bytes);
+        } else if (bytes != null) {
+            // decimal string written by older versions
             try {
-                trip = Double.parseDouble(string);
+                trip = Double.parseDouble(new String(bytes));
             } catch (NumberFormatException nfe) {
-                //
+                SLog.log(SLog.Warning, "LocationManager", "unreadable trip record");
             }
         }
+        persistedTrip = trip;
+        persistedMillis = System.currentTimeMillis();
         SLog.log(SLog.Debug, "LocationManager", "persistent trip " + trip);
+        publishState();
     }
 
     public static LocationManager getInstance() {
@@ -106,31 +184,166 @@ public class LocationManager {
         }
     }
 
+    /**
+     * Replaces the snapshot seen by other threads, called by
+     * GPSProcessorThread only, after each change, so a stale snapshot never
+     * replaces a newer one.
+     */
+    private void publishState() {
+        Location location = currentLocation != null ? currentLocation : lastReportedLocation;
+        state = new LocationState(location != null ? location.copy() : null, trip, fix, numSat);
+    }
+
+    /**
+     * Returns the current state without locking, safe to call from any
+     * thread.
+     */
+    public LocationState getState() {
+        return state;
+    }
+
     public boolean isFix() {
-        return fix;
+        return state.fix;
     }
 
     public int getNumSat() {
-        return numSat;
+        return state.numSat;
     }
 
     public boolean isTimeout() {
         return timeout;
     }
 
+    /**
+     * Returns when a receiver put to sleep now has to be woken up to deliver
+     * the next minInterval report, or 0 if it should stay awake: not parked
+     * for gpsSleep seconds yet, no fix or the report is due within lead
+     * seconds.
+     */
+    public synchronized long getWakeupMillis(int lead) {
+        int gpsSleep = Settings.getInstance().getSetting("gpsSleep", 0);
+        if (gpsSleep <= 0 || !fix || !stationary || lastReportedLocation == null) {
+            return 0;
+        }
+        long now = System.currentTimeMillis();
+        if (now - parkedMillis < gpsSleep * 1000L) {
+            return 0;
+        }
+        long wakeup = lastReportedLocation.date.getTime()
+                + (Settings.getInstance().getSetting("minInterval", 1800) - lead) * 1000L;
+        return wakeup > now ? wakeup : 0;
+    }
+
+    /**
+     * The receiver was put to sleep on purpose, losing the fix is expected.
+     */
+    public synchronized void sleep() {
+        SLog.log(SLog.Informational, "LocationManager", "GPS sleeping");
+        fix = false;
+        setLED(false);
+        stopTimer();
+        publishState();
+    }
+
+    /**
+     * The receiver was woken up and is expected to deliver a fix again.
+     */
+    public synchronized void wakeup() {
+        SLog.log(SLog.Informational, "LocationManager", "GPS waking up");
+        startTimer();
+    }
+
+    /**
+     * Requests to reset the trip odometer, done by the GPS processing thread
+     * within a second.
+     */
     public void zero() {
-        trip = 0.0;
-        persistentRecord.set(1, Double.toString(trip).getBytes());
+        zeroRequested = true;
+    }
+
+    /**
+     * Applies requests of other threads, called by GPSProcessorThread only.
+     */
+    public void applyRequests() {
+        if (zeroRequested) {
+            zeroRequested = false;
+            trip = 0.0;
+            writeTrip();
+            publishState();
+        }
+    }
+
+    /**
+     * Writes the trip odometer to flash, if it changed since the last write
+     * or no position was persisted yet. Called by GPSProcessorThread, or at
+     * shutdown once it has terminated.
+     */
+    public void persistTrip() {
+        if (trip != persistedTrip || (!known && state.location != null)) {
+            writeTrip();
+        }
+    }
+
+    private void readTrip(byte[] bytes) {
+        if (bytes.length != 9 && bytes.length != 17) {
+            return;
+        }
+        long bits = 0;
+        for (int i = 1; i <= 8; i++) {
+            bits = bits << 8 | (bytes[i] & 0xFF);
+        }
+        trip = Double.longBitsToDouble(bits);
+        if (bytes.length == 17) {
+            known = true;
+            knownLatitude = getInt(bytes, 9);
+            knownLongitude = getInt(bytes, 13);
+        }
+    }
+
+    /**
+     * Writes TRIP_VERSION, the trip odometer as 8 byte IEEE 754 value, big
+     * endian, and latitude and longitude of the last fix, if any.
+     */
+    private synchronized void writeTrip() {
+        Location location = currentLocation != null ? currentLocation : lastReportedLocation;
+        if (location != null) {
+            known = true;
+            knownLatitude = location.latitude;
+            knownLongitude = location.longitude;
+        }
+        long bits = Double.doubleToLongBits(trip);
+        byte[] bytes = new byte[known ? 17 : 9];
+        bytes[0] = TRIP_VERSION;
+        for (int i = 8; i >= 1; i--) {
+            bytes[i] = (byte) bits;
+            bits >>>= 8;
+        }
+        if (known) {
+            putInt(bytes, 9, knownLatitude);
+            putInt(bytes, 13, knownLongitude);
+        }
+        persistentRecord.set(1, bytes);
+        persistedTrip = trip;
+        persistedMillis = System.currentTimeMillis();
         SLog.log(SLog.Debug, "LocationManager", "trip persisted " + trip);
     }
 
-    public Date dateLastFix() {
-        if (currentLocation != null) {
-            return currentLocation.date;
-        } else if (lastReportedLocation != null) {
-            return lastReportedLocation.date;
+    /**
+     * Checkpoints the trip odometer only every tripDistance meters or
+     * tripInterval seconds of driving, instead of on every fix.
+     */
+    private void checkpointTrip() {
+        int tripDistance = Settings.getInstance().getSetting("tripDistance", 1000);
+        int tripInterval = Settings.getInstance().getSetting("tripInterval", 300);
+        if (trip - persistedTrip >= tripDistance
+                || System.currentTimeMillis() - persistedMillis >= tripInterval * 1000L) {
+            persistTrip();
         }
-        return null;
+    }
+
+    public Date dateLastFix() {
+        Location location = state.location;
+        return location != null ? location.date : null;
     }
 
     public boolean isOnce() {
@@ -148,107 +361,25 @@ public class LocationManager {
      * ground, knots 8) Track made good, degrees true 9) Date, ddmmyy 10)
      * Magnetic Variation, degrees 11) E or W 12) Checksum
      */
-    public void processGPRMCString(String gprmc) {
-        SLog.log(SLog.Debug, "LocationManager", "processGPRMCString: " + gprmc.substring(gprmc.indexOf("$GPRMC")));
-
-        rmc = gprmc.substring(gprmc.indexOf("$GPRMC"));
-        int pos = rmc.indexOf("\r\n");
-        if (pos >= 0) {
-            rmc = rmc.substring(0, pos);
-        }
+    public void processRMC(NMEAParser nmea) {
+        rmcMillis = System.currentTimeMillis();
 
         if (Settings.getInstance().getSetting("raw", false)) {
-            if (!AppMain.getInstance().isOff()) {
-                SocketGPRSThread.getInstance().put(
-                        Settings.getInstance().getSetting("publish", "owntracks/gw/")
-                        + Settings.getInstance().getSetting("clientID", MicroManager.getInstance().getIMEI())
-                        + "/raw",
-                        Settings.getInstance().getSetting("qos", 1),
-                        Settings.getInstance().getSetting("retain", true),
-                        rmc.getBytes()
-                );
-            }
+            publishRaw(nmea);
         }
 
-        String[] components = StringFunc.split(rmc, ",");
-        if (components.length == 13) {
-            try {
-                tempDate = DateFormatter.parse(components[9], components[1].substring(0, 6));
-
-                if (fix) {
-                    if (!components[2].equalsIgnoreCase("A")) {
-                        fix = false;
-                        setLED(false);
-                        startTimer();
-                        send(getlastPayloadString("l"));
-                    }
-
-                } else {
-                    if (components[2].equalsIgnoreCase("A")) {
-                        fix = true;
-                        setLED(true);
-                        stopTimer();
-                        SLog.log(SLog.Debug, "LocationManager", "set RTC w/ first fix " + DateFormatter.isoString(tempDate));
-                        String rtc = "at+cclk=\"" + DateFormatter.atString(tempDate) + "\"\r";
-                        ATManager.getInstance().executeCommandSynchron(rtc);
-                    }
-                }
-
-                if (components[3].length() > 2) {
-                    tempLat = Double.parseDouble(components[3].substring(0, 2))
-                            + Double.parseDouble(components[3].substring(2)) / 60;
-                    if (components[4].equalsIgnoreCase("S")) {
-                        tempLat *= -1;
-                    }
-                    {
-                        long latLong = (long) (tempLat * 1000000);
-                        tempLat = latLong / 1000000.0;
-                    }
-                } else {
-                    tempLat = 0.0;
-                }
-
-                if (components[5].length() > 3) {
-                    tempLon = Double.parseDouble(components[5].substring(0, 3))
-                            + Double.parseDouble(components[5].substring(3)) / 60;
-                    if (components[6].equalsIgnoreCase("W")) {
-                        tempLon *= -1;
-                    }
-                    {
-                        long lonLong = (long) (tempLon * 1000000);
-                        tempLon = lonLong / 1000000.0;
-                    }
-                } else {
-                    tempLon = 0.0;
-                }
-
-                if (components[8].length() > 0) {
-                    tempCog = Double.parseDouble(components[8]);
-                } else {
-                    tempCog = 0.0;
-                }
-
-                if (components[7].length() > 0) {
-                    tempVel = Double.parseDouble(components[7]);
-                    tempVel *= 1.852; // knots/h -> km/h
-                    {
-                        long speedLong = (long) (tempVel * 1000000);
-                        tempVel = speedLong / 1000000.0;
-                    }
-                } else {
-                    tempVel = 0.0;
-                }
-            } catch (NumberFormatException nfe) {
-                SLog.log(SLog.Warning, "LocationManager", "RMC NumberFormatException");
-                rmc = null;
-            } catch (StringIndexOutOfBoundsException sioobe) {
-                SLog.log(SLog.Warning, "LocationManager", "RMC StringIndexOutOfBoundsException");
-                rmc = null;
-            } catch (ArrayIndexOutOfBoundsException aioobe) {
-                SLog.log(SLog.Warning, "LocationManager", "RMC ArrayIndexOutOfBoundsException");
-                rmc = null;
-            }
+        tempDate = DateFormatter.parse(nmea.date, nmea.time);
+        updateFix(nmea.valid && tempDate != null);
+        if (tempDate == null) {
+            rmcValid = false;
+            return;
         }
+
+        tempLat = nmea.latitude;
+        tempLon = nmea.longitude;
+        tempCog = nmea.course;
+        tempVel = nmea.speed;
+        rmcValid = true;
     }
 
     /*
@@ -270,60 +401,94 @@ public class LocationManager {
      * or 9 update, null field when DGPS is not used 14) Differential reference
      * station ID, 0000-1023 15) Checksum
      */
-    public void processGPGGAString(String gpgga) {
-        SLog.log(SLog.Debug, "LocationManager", "processGPGGAString: " + gpgga.substring(gpgga.indexOf("$GPGGA")));
+    public void processGGA(NMEAParser nmea) {
+        if (Settings.getInstance().getSetting("raw", false)) {
+            publishRaw(nmea);
+        }
 
-        gga = gpgga.substring(gpgga.indexOf("$GPGGA"));
-        int pos = gga.indexOf("\r\n");
-        if (pos >= 0) {
-            gga = gga.substring(0, pos);
+        numSat = nmea.numSat;
+        tempAlt = nmea.altitude;
+
+        // each RMC is used by one GGA only, a lost RMC must not repeat the last epoch
+        boolean rmc = rmcValid;
+        rmcValid = false;
+        if (fix && rmc) {
+            rollLocation(tempDate, tempLon, tempLat, tempCog, tempVel, tempAlt, 0);
+        } else {
+            publishState();
         }
+    }
 
-        if (Settings.getInstance().getSetting("raw", false)) {
-            if (!AppMain.getInstance().isOff()) {
-                SocketGPRSThread.getInstance().put(
-                        Settings.getInstance().getSetting("publish", "owntracks/gw/")
-                        + Settings.getInstance().getSetting("clientID", MicroManager.getInstance().getIMEI())
-                        + "/raw",
-                        Settings.getInstance().getSetting("qos", 1),
-                        Settings.getInstance().getSetting("retain", true),
-                        gga.getBytes()
-                );
-            }
+    /*
+     * UBX NAV-PVT - Navigation Position Velocity Time Solution, everything
+     * RMC and GGA deliver in one message per epoch, plus accuracy estimates.
+     */
+    public void processPVT(UBXParser pvt) {
+        rmcMillis = System.currentTimeMillis();
+
+        if (!pvt.timeValid) {
+            return;
+        }
+        tempDate = DateFormatter.parse(pvt.date, pvt.time);
+        updateFix(pvt.valid && tempDate != null);
+        if (tempDate == null) {
+            return;
         }
 
-        String[] components = StringFunc.split(gga, ",");
-        if (components.length == 15) {
-            try {
-                if (components[7].length() > 0) {
-                    numSat = Integer.parseInt(components[7]);
-                } else {
-                    numSat = 0;
-                }
+        numSat = pvt.numSat;
+        if (fix) {
+            rollLocation(tempDate, pvt.longitude, pvt.latitude, pvt.course,
+                    pvt.speed, pvt.altitude, (pvt.hAcc + 5) / 10);
+        } else {
+            publishState();
+        }
+    }
 
-                if (components[9].length() > 0) {
-                    tempAlt = Double.parseDouble(components[9]);
-                    {
-                        long altitudeLong = (long) (tempAlt * 1000000);
-                        tempAlt = altitudeLong / 1000000.0;
-                    }
-                } else {
-                    tempAlt = 0.0;
-                }
-            } catch (NumberFormatException nfe) {
-                SLog.log(SLog.Warning, "LocationManager", "GGA NumberFormatException");
-                return;
-            } catch (ArrayIndexOutOfBoundsException aioobe) {
-                SLog.log(SLog.Warning, "LocationManager", "GGA ArrayIndexOutOfBoundsException");
-                return;
+    private void updateFix(boolean valid) {
+        if (fix) {
+            if (!valid) {
+                fix = false;
+                setLED(false);
+                startTimer();
+                send(getlastPayload("l"));
+                publishState();
             }
-            if (fix && rmc != null) {
-                rollLocation(tempDate, tempLon, tempLat, tempCog, tempVel, tempAlt);
+
+        } else {
+            if (valid) {
+                fix = true;
+                setLED(true);
+                stopTimer();
+                SLog.log(SLog.Debug, "LocationManager", "set RTC w/ first fix " + DateFormatter.isoString(tempDate));
+                String rtc = "at+cclk=\"" + DateFormatter.atString(tempDate) + "\"\r";
+                ATManager.getInstance().executeCommandSynchron(rtc);
+                publishState();
             }
         }
     }
 
-    private void rollLocation(Date date, double lon, double lat, double cog, double vel, double alt) {
+    private void publishRaw(NMEAParser nmea) {
+        if (!AppMain.getInstance().isOff()) {
+            SocketGPRSThread.getInstance().put(
+                    Settings.getInstance().getSetting("publish", "owntracks/gw/")
+                    + Settings.getInstance().getSetting("clientID", MicroManager.getInstance().getIMEI())
+                    + "/raw",
+                    Settings.getInstance().getSetting("qos", 1),
+                    Settings.getInstance().getSetting("retain", true),
+                    nmea.toString().getBytes()
+            );
+        }
+    }
+
+    /**
+     * @param lon longitude in microdegrees
+     * @param lat latitude in microdegrees
+     * @param cog course in decidegrees
+     * @param vel speed in cm/s
+     * @param alt altitude in cm
+     * @param acc horizontal accuracy in cm, 0 if unknown
+     */
+    private void rollLocation(Date date, int lon, int lat, int cog, int vel, int alt, int acc) {
         Location secretLocation;
 
         secretLocation = new Location();
@@ -333,22 +498,33 @@ public class LocationManager {
         secretLocation.course = cog;
         secretLocation.speed = vel;
         secretLocation.altitude = alt;
+        secretLocation.accuracy = acc;
 
         if (!AppMain.getInstance().isOff()) {
             int minDistance = Settings.getInstance().getSetting("minDistance", 100);
             int minSpeed = Settings.getInstance().getSetting("minSpeed", 5);
-            int maxInterval = Settings.getInstance().getSetting("maxInterval", 60);
+            int factor = backlogFactor();
+            int maxInterval = Settings.getInstance().getSetting("maxInterval", 60) * factor;
             int minInterval = Settings.getInstance().getSetting("minInterval", 1800);
 
             currentLocation = secretLocation;
             calculateIncrementalDistances();
+            // parked fixes differ by noise only, keep one per minInterval
+            if (!stationary || historyLocation == null
+                    || secretLocation.distance(historyLocation) >= minDistance
+                    || date.getTime() - historyLocation.date.getTime() >= minInterval * 1000L) {
+                LocationHistory.getInstance().add(secretLocation);
+                historyLocation = secretLocation;
+            }
+            GeofenceManager.getInstance().check(secretLocation);
 
             if (lastReportedLocation == null) {
-                send(getPayloadString("f"));
+                send(getPayload("f"));
             } else {
                 boolean transitionMoveToPark = false;
                 boolean transitionParkToMove = false;
-                if (vel > minSpeed || incrementalDistance > minDistance) {
+                // minSpeed is in km/h, 1 cm/s = 0.036 km/h
+                if (vel * 36 > minSpeed * 1000 || incrementalDistance > minDistance) {
                     if (stationary) {
                         transitionParkToMove = true;
                     }
@@ -356,6 +532,7 @@ public class LocationManager {
                 } else {
                     if (!stationary) {
                         transitionMoveToPark = true;
+                        parkedMillis = System.currentTimeMillis();
                     }
                     stationary = true;
                 }
@@ -363,20 +540,34 @@ public class LocationManager {
                 long timeSinceLast = currentLocation.date.getTime() / 1000 - lastReportedLocation.date.getTime() / 1000;
 
                 if (stationary && timeSinceLast > minInterval) {
-                    send(getPayloadString("T"));
+                    send(getPayload("T"));
                 } else if (!stationary && timeSinceLast > maxInterval) {
-                    send(getPayloadString("t"));
+                    send(getPayload("t"));
                 } else if (transitionMoveToPark) {
-                    send(getPayloadString("k"));
+                    persistTrip();
+                    send(getPayload("k"));
                 } else if (transitionParkToMove) {
-                    send(getPayloadString("v"));
+                    send(getPayload("v"));
+                } else if (!stationary) {
+                    int deadReckoning = Settings.getInstance().getSetting("deadReckoning", 0) * factor;
+                    if (deadReckoning > 0) {
+                        if (currentLocation.predictionError(lastReportedLocation) > deadReckoning) {
+                            send(getPayload("d"));
+                        }
+                    } else {
+                        int tolerance = Settings.getInstance().getSetting("tolerance", 0);
+                        if (tolerance <= 0 && factor > 1) {
+                            tolerance = backlogTolerance;
+                        }
+                        simplifyTrack(tolerance * factor);
+                    }
                 }
             }
+            publishState();
         }
         if (!once) {
             if (AppMain.getInstance().wakeupMode.equals(AppMain.accelerometerWakeup)) {
-                String payload = PayloadString(secretLocation, "a");
-                sendAlarm(payload);
+                sendAlarm(payload(secretLocation, "a", trip, false));
                 once = true;
             } else if (AppMain.getInstance().wakeupMode.equals(AppMain.alarmClockWakeup)) {
                 once = true;
@@ -384,6 +575,81 @@ public class LocationManager {
         }
     }
 
+    /**
+     * Returns by how much intervals and tolerances are stretched because the
+     * queue is backing up: 1 below backlogThreshold percent of the queue
+     * budget, then doubled each time half of the remaining room is used, up
+     * to maxBacklogFactor. Back to 1 once the queue has drained.
+     */
+    private int backlogFactor() {
+        long now = System.currentTimeMillis();
+        if (now - backlogMillis < backlogCheck && now >= backlogMillis) {
+            return backlogFactor;
+        }
+        backlogMillis = now;
+
+        int factor = 1;
+        int threshold = Settings.getInstance().getSetting("backlogThreshold", 50);
+        if (threshold > 0 && threshold < 100) {
+            int backlog = SocketGPRSThread.getInstance().getBacklog();
+            int step = threshold;
+            int room = 100 - threshold;
+            while (backlog >= step && factor < maxBacklogFactor) {
+                factor *= 2;
+                room /= 2;
+                step = 100 - room;
+            }
+        }
+        if (factor != backlogFactor) {
+            SLog.log(SLog.Informational, "LocationManager", "backlog factor " + factor);
+            backlogFactor = factor;
+        }
+        return factor;
+    }
+
+    /**
+     * Streaming track simplification: the reported track is a polyline
+     * through the published fixes. As long as all fixes since the last report
+     * are within tolerance of the straight line from the last report to the
+     * current fix, nothing is published. Once one is not, the previous fix is
+     * published as corner of the track (trigger s) and becomes the new start.
+     *
+     * @param tolerance maximum cross track error in m, 0 disables
+     */
+    private void simplifyTrack(int tolerance) {
+        if (tolerance <= 0 || lastReportedLocation == null) {
+            return;
+        }
+        Location current = currentLocation;
+        current.incrementalDistance = incrementalDistance;
+
+        boolean corner = track.size() >= maxTrack;
+        for (int i = 0; i < track.size() && !corner; i++) {
+            Location location = (Location) track.elementAt(i);
+            if (location.offTrack(lastReportedLocation, current) > tolerance) {
+                corner = true;
+            }
+        }
+
+        if (!corner || track.isEmpty()) {
+            track.addElement(current);
+            return;
+        }
+
+        Location previous = (Location) track.lastElement();
+        double rest = incrementalDistance - previous.incrementalDistance;
+        byte[] payload;
+        synchronized (this) {
+            lastReportedLocation = previous;
+            payload = payload(previous, "s", trip - rest, true);
+            incrementalDistance = rest;
+        }
+        track.removeAllElements();
+        current.incrementalDistance = rest;
+        track.addElement(current);
+        send(payload);
+    }
+
     private void calculateIncrementalDistances() {
         if (lastLocation != null) {
             double distance = lastLocation.distance(currentLocation);
@@ -393,22 +659,71 @@ public class LocationManager {
             if (distance > Settings.getInstance().getSetting("sensitivity", 1)) {
                 incrementalDistance += distance;
                 trip += distance;
-                persistentRecord.set(1, Double.toString(trip).getBytes());
-                SLog.log(SLog.Debug, "LocationManager", "trip persisted " + trip);
+                checkpointTrip();
             }
         }
         lastLocation = currentLocation;
     }
 
-    public void sendAlarm(String payload) {
+    public void sendAlarm(byte[] payload) {
         sendAny("/alarm", false, payload);
     }
 
-    public void send(String payload) {
-        sendAny("", true, payload);
+    /**
+     * Publishes a coarse first report while there was no fix since the start,
+     * so the device shows up as soon as it is online instead of after the
+     * time to first fix. On an accelerometer wakeup it is also sent as alarm.
+     * The report carries the serving cell and the last position persisted
+     * with the trip, is marked coarse and not retained. The first fix is
+     * published as usual when it arrives.
+     *
+     * Called by the network check whenever the serving cell is known.
+     */
+    public void coarseReport(int mcc, int mnc, int lac, int cellID) {
+        if (coarseSent || state.location != null || mcc < 0 || cellID < 0
+                || !Settings.getInstance().getSetting("coarse", true)) {
+            return;
+        }
+        coarseSent = true;
+        String cell = mcc + "," + mnc + "," + lac + "," + cellID;
+        SLog.log(SLog.Informational, "LocationManager", "coarse report " + cell);
+
+        compilePayload();
+        String subTopic = payloadCsv || payloadBinary ? "/coarse" : "";
+        sendAny(subTopic, false, coarsePayload("f", cell));
+        if (AppMain.getInstance().wakeupMode.equals(AppMain.accelerometerWakeup)) {
+            sendAlarm(coarsePayload("a", cell));
+        }
+    }
+
+    private byte[] coarsePayload(String reason, String cell) {
+        StringBuffer json = new StringBuffer(160);
+        json.append("{\"_type\":\"location\",\"t\":\"").append(reason);
+        json.append("\",\"tid\":\"").append(getTid());
+        json.append("\",\"tst\":\"").append(System.currentTimeMillis() / 1000);
+        json.append('"');
+        if (known) {
+            json.append(",\"lat\":\"");
+            StringFunc.appendDecimal(json, knownLatitude, 6);
+            json.append("\",\"lon\":\"");
+            StringFunc.appendDecimal(json, knownLongitude, 6);
+            json.append('"');
+        }
+        json.append(",\"coarse\":true,\"cell\":\"").append(cell);
+        json.append("\"}");
+        return json.toString().getBytes();
     }
 
-    public void sendAny(String subTopic, boolean retain, String payload) {
+    /**
+     * Publishes a location retained, except binary deltas, which are useless
+     * without their predecessors.
+     */
+    public void send(byte[] payload) {
+        boolean delta = payloadBinary && payload != null && payload[0] == BINARY_DELTA;
+        sendAny("", !delta, payload);
+    }
+
+    public void sendAny(String subTopic, boolean retain, byte[] payload) {
         if (payload != null && !AppMain.getInstance().isOff()) {
             SocketGPRSThread.getInstance().put(
                     Settings.getInstance().getSetting("publish", "owntracks/gw/")
@@ -416,105 +731,514 @@ public class LocationManager {
                     + subTopic,
                     Settings.getInstance().getSetting("qos", 1),
                     retain,
-                    payload.getBytes()
+                    payload,
+                    rmcMillis
             );
         }
     }
 
-    private synchronized String getPayloadString(String reason) {
+    private synchronized byte[] getPayload(String reason) {
         if (currentLocation != null) {
             lastReportedLocation = currentLocation;
             currentLocation = null;
             lastReportedLocation.incrementalDistance = incrementalDistance;
             incrementalDistance = 0.0;
-            return PayloadString(lastReportedLocation, reason);
+            track.removeAllElements();
+            return payload(lastReportedLocation, reason, trip, true);
         } else {
             return null;
         }
     }
 
+    /**
+     * Returns the tracker ID used in payloads, from tid or clientID.
+     */
+    public String getTid() {
+        compilePayload();
+        return binaryTid;
+    }
+
+    /**
+     * Returns the payload for the most recent location in the configured
+     * format.
+     */
+    public byte[] getlastPayload(String reason) {
+        LocationState current = state;
+        return payload(current.location, reason, current.trip, true);
+    }
+
+    /**
+     * Returns the payload for the most recent location outside of the binary
+     * delta chain, for publishing ahead of queued records.
+     */
+    public byte[] getLivePayload(String reason) {
+        LocationState current = state;
+        return payload(current.location, reason, current.trip, false);
+    }
+
+    /**
+     * Keeps the last record sent as base for the first backfill record, see
+     * keyframeOf.
+     */
+    public synchronized void startBackfill() {
+        System.arraycopy(sentChain, 0, backfillChain, 0, sentChain.length);
+    }
+
+    /**
+     * Rewrites the most recent chained record as keyframe, if it is a delta.
+     * Deltas always refer to the values of the previous chained record, so
+     * the records after it still apply to the keyframe.
+     *
+     * @return the keyframe, or record itself if it is no such delta
+     */
+    public synchronized byte[] keyframeOfLast(byte[] record) {
+        compilePayload();
+        if (!payloadBinary || record == null || record.length < 3 || record[0] != BINARY_DELTA
+                || binaryCount <= 0 || (record[1] & 0xFF) != ((binarySequence - 1) & 0xFF)) {
+            return record;
+        }
+        int[] pos = {3};
+        for (int i = 0; i < 5; i++) {
+            readVarint(record, pos);
+        }
+        binaryCount = 1;
+        return keyframe(record, pos[0], new long[]{binaryTst, binaryLatitude, binaryLongitude,
+            binaryAltitude, binaryTrip});
+    }
+
+    /**
+     * Returns the most recent location as text, JSON when the configured
+     * format is binary.
+     */
     public String getlastPayloadString(String reason) {
-        if (currentLocation != null) {
-            return PayloadString(currentLocation, reason);
-        } else {
-            return PayloadString(lastReportedLocation, reason);
+        LocationState current = state;
+        return PayloadString(current.location, reason, current.trip);
+    }
+
+    /**
+     * Builds the payload in the configured format.
+     *
+     * @param chained false for binary records published outside the location
+     * topic, which are always self-contained and leave the delta chain alone
+     */
+    private byte[] payload(Location location, String reason, double trip, boolean chained) {
+        if (location == null) {
+            return null;
         }
+        compilePayload();
+        if (payloadBinary) {
+            return binaryPayload(location, reason, trip, chained);
+        }
+        return textPayload(location, reason, trip);
     }
 
-    private String PayloadString(Location location, String reason) {
-        if (location != null) {
-            String tid = Settings.getInstance().getSetting("tid", null);
-            if (tid == null) {
-                String clientID = Settings.getInstance().getSetting("clientID",
-                        MicroManager.getInstance().getIMEI());
-                int len = clientID.length();
-                if (len > 2) {
-                    tid = clientID.substring(len - 2);
-                } else {
-                    tid = clientID;
-                }
+    /**
+     * Encodes a location as binary record, see the binary format in the
+     * manual. Deltas refer to the previous chained record.
+     */
+    private synchronized byte[] binaryPayload(Location location, String reason, double trip, boolean chained) {
+        long tst = location.date.getTime() / 1000;
+        long alt = location.altitude / 100;
+        long tripMeters = (long) trip;
+
+        int keyframe = Settings.getInstance().getSetting("keyframe", 10);
+        boolean key = !chained || binaryCount <= 0 || binaryCount >= keyframe;
+
+        binaryLength = 0;
+        if (key) {
+            binaryByte(BINARY_KEYFRAME);
+            binaryByte(binarySequence);
+            binaryByte(reason.charAt(0));
+            byte[] tid = binaryTid.getBytes();
+            int length = Math.min(tid.length, maxBinaryTid);
+            binaryByte(length);
+            for (int i = 0; i < length; i++) {
+                binaryByte(tid[i]);
             }
-            if (Settings.getInstance().getSetting("payload", "json").equalsIgnoreCase("csv")) {
-                String csv;
-                csv = tid
-                        + "," + Long.toString(location.date.getTime() / 1000, 16)
-                        + "," + reason
-                        + "," + (long) (location.latitude * 1000000.0)
-                        + "," + (long) (location.longitude * 1000000.0)
-                        + "," + (long) ((location.course + 5) / 10)
-                        + "," + (long) location.speed
-                        + "," + (long) ((location.altitude + 5) / 10)
-                        + "," + (long) location.incrementalDistance
-                        + "," + (long) ((trip + 500) / 1000);
-                return csv;
-            } else {
+            binaryVarint(tst);
+            binaryVarint(zigzag(location.latitude));
+            binaryVarint(zigzag(location.longitude));
+            binaryVarint(zigzag(alt));
+            binaryVarint(tripMeters);
+        } else {
+            binaryByte(BINARY_DELTA);
+            binaryByte(binarySequence);
+            binaryByte(reason.charAt(0));
+            binaryVarint(zigzag(tst - binaryTst));
+            binaryVarint(zigzag(location.latitude - binaryLatitude));
+            binaryVarint(zigzag(location.longitude - binaryLongitude));
+            binaryVarint(zigzag(alt - binaryAltitude));
+            binaryVarint(zigzag(tripMeters - binaryTrip));
+        }
+        binaryVarint(location.course / 10);
+        binaryVarint(location.speed * 36 / 1000);
+        binaryVarint((long) location.incrementalDistance);
+        binaryVarint((location.accuracy + 50) / 100);
+
+        if (chained) {
+            binaryCount = key ? 1 : binaryCount + 1;
+            binarySequence = (binarySequence + 1) & 0xFF;
+            binaryTst = tst;
+            binaryLatitude = location.latitude;
+            binaryLongitude = location.longitude;
+            binaryAltitude = alt;
+            binaryTrip = tripMeters;
+        }
 
-                String[] fields = StringFunc.split(Settings.getInstance().getSetting("fields", "course,speed,altitude,distance,trip"), ",");
+        byte[] bytes = new byte[binaryLength];
+        System.arraycopy(binaryBuffer, 0, bytes, 0, binaryLength);
+        return bytes;
+    }
 
-                String json;
-                json = "{\"_type\":\"location\"";
-                json = json.concat(",\"t\":\"" + reason + "\"");
+    /**
+     * Follows the binary records sent on the location topic, called by
+     * SocketGPRSThread after each successful publish.
+     */
+    public synchronized void sentBinary(byte[] record) {
+        compilePayload();
+        if (!payloadBinary) {
+            return;
+        }
+        int[] pos = new int[1];
+        long[] values = new long[5];
+        if (!decodeBinary(record, sentChain, pos, values)) {
+            sentChain[0] = -1;
+            return;
+        }
+        sentChain[0] = record[1] & 0xFF;
+        System.arraycopy(values, 0, sentChain, 1, values.length);
+    }
+
+    /**
+     * Rewrites a delta following the last record sent on the location topic
+     * before startBackfill as keyframe, so the first record of a backfill
+     * decodes on its own.
+     *
+     * @return the keyframe, or record itself if it is no such delta
+     */
+    public synchronized byte[] keyframeOf(byte[] record) {
+        compilePayload();
+        if (!payloadBinary || record.length < 3 || record[0] != BINARY_DELTA
+                || backfillChain[0] < 0) {
+            return record;
+        }
+        int[] pos = new int[1];
+        long[] values = new long[5];
+        if (!decodeBinary(record, backfillChain, pos, values)) {
+            return record;
+        }
 
-                json = json.concat(",\"tid\":\"" + tid + "\"");
+        return keyframe(record, pos[0], values);
+    }
 
-                json = json.concat(",\"tst\":\"" + (location.date.getTime() / 1000) + "\"");
-                json = json.concat(",\"lat\":\"" + location.latitude + "\"");
-                json = json.concat(",\"lon\":\"" + location.longitude + "\"");
+    /**
+     * Encodes a keyframe with sequence number and trigger of record, the
+     * absolute tst, lat, lon, alt and trip in values and the fields of record
+     * from offset on, which are the same in both kinds.
+     */
+    private byte[] keyframe(byte[] record, int offset, long[] values) {
+        binaryLength = 0;
+        binaryByte(BINARY_KEYFRAME);
+        binaryByte(record[1]);
+        binaryByte(record[2]);
+        byte[] tid = binaryTid.getBytes();
+        int length = Math.min(tid.length, maxBinaryTid);
+        binaryByte(length);
+        for (int i = 0; i < length; i++) {
+            binaryByte(tid[i]);
+        }
+        binaryVarint(values[0]);
+        binaryVarint(zigzag(values[1]));
+        binaryVarint(zigzag(values[2]));
+        binaryVarint(zigzag(values[3]));
+        binaryVarint(values[4]);
+        byte[] bytes = new byte[binaryLength + record.length - offset];
+        System.arraycopy(binaryBuffer, 0, bytes, 0, binaryLength);
+        System.arraycopy(record, offset, bytes, binaryLength, record.length - offset);
+        return bytes;
+    }
 
-                if (StringFunc.isInStringArray("course", fields)) {
-                    json = json.concat(",\"cog\":" + (long) location.course);
-                }
-                if (StringFunc.isInStringArray("speed", fields)) {
-                    json = json.concat(",\"vel\":" + (long) location.speed);
-                }
-                if (StringFunc.isInStringArray("altitude", fields)) {
-                    json = json.concat(",\"alt\":" + (long) location.altitude);
-                }
-                if (StringFunc.isInStringArray("distance", fields)) {
-                    json = json.concat(",\"dist\":" + (long) location.incrementalDistance);
-                }
-                if (StringFunc.isInStringArray("trip", fields)) {
-                    json = json.concat(",\"trip\":" + (long) trip);
+    /**
+     * Decodes tst, lat, lon, alt and trip of a binary record, deltas against
+     * the record chain describes.
+     *
+     * @param pos set to the offset of the fields common to both kinds
+     * @return false if the record cannot be decoded
+     */
+    private boolean decodeBinary(byte[] record, long[] chain, int[] pos, long[] values) {
+        try {
+            if (record[0] == BINARY_KEYFRAME) {
+                pos[0] = 4 + (record[3] & 0xFF);
+                values[0] = readVarint(record, pos);
+                for (int i = 1; i < 4; i++) {
+                    values[i] = unzigzag(readVarint(record, pos));
                 }
-                if (StringFunc.isInStringArray("battery", fields)) {
-                    json = json.concat(",\"batt\":\"" + BatteryManager.getInstance().getExternalVoltageString() + "\"");
+                values[4] = readVarint(record, pos);
+                return true;
+            } else if (record[0] == BINARY_DELTA
+                    && chain[0] >= 0 && (record[1] & 0xFF) == ((chain[0] + 1) & 0xFF)) {
+                pos[0] = 3;
+                for (int i = 0; i < 5; i++) {
+                    values[i] = chain[i + 1] + unzigzag(readVarint(record, pos));
                 }
-
-                json = json.concat("}");
-                return json;
+                return true;
             }
+        } catch (ArrayIndexOutOfBoundsException aioobe) {
+            SLog.log(SLog.Error, "LocationManager", "binary record truncated");
+        }
+        return false;
+    }
+
+    private static long readVarint(byte[] bytes, int[] pos) {
+        long value = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = bytes[pos[0]++];
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static void putInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >> 24);
+        bytes[offset + 1] = (byte) (value >> 16);
+        bytes[offset + 2] = (byte) (value >> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+
+    private static int getInt(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFF) << 24
+                | (bytes[offset + 1] & 0xFF) << 16
+                | (bytes[offset + 2] & 0xFF) << 8
+                | (bytes[offset + 3] & 0xFF);
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private void binaryByte(int value) {
+        binaryBuffer[binaryLength++] = (byte) value;
+    }
+
+    /**
+     * Appends an unsigned LEB128 varint, 7 bits per byte, low bits first.
+     */
+    private void binaryVarint(long value) {
+        while ((value & ~0x7FL) != 0) {
+            binaryByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        binaryByte((int) value);
+    }
+
+    private String PayloadString(Location location, String reason, double trip) {
+        if (location != null) {
+            return new String(textPayload(location, reason, trip));
         } else {
             return null;
         }
     }
 
-    public String getLastHumanString() {
-        Location location = null;
-        if (currentLocation != null) {
-            location = currentLocation;
-        } else if (lastReportedLocation != null) {
-            location = lastReportedLocation;
+    /**
+     * Encodes a location as CSV or JSON into textBuffer and copies it out
+     * once, without intermediate Strings.
+     */
+    private synchronized byte[] textPayload(Location location, String reason, double trip) {
+        compilePayload();
+        long tst = location.date.getTime() / 1000;
+        textLength = 0;
+        if (payloadCsv) {
+            textBytes(payloadTid);
+            textByte(',');
+            textNumber(tst, 16);
+            textByte(',');
+            textAscii(reason);
+            textByte(',');
+            textNumber(location.latitude, 10);
+            textByte(',');
+            textNumber(location.longitude, 10);
+            textByte(',');
+            textNumber((location.course + 50) / 100, 10);
+            textByte(',');
+            textNumber(location.speed * 36 / 1000, 10);
+            textByte(',');
+            textNumber((location.altitude + 500) / 1000, 10);
+            textByte(',');
+            textNumber((long) location.incrementalDistance, 10);
+            textByte(',');
+            textNumber((long) ((trip + 500) / 1000), 10);
+        } else {
+            textAscii("{\"_type\":\"location\",\"t\":\"");
+            textAscii(reason);
+            textBytes(payloadTid);
+            textNumber(tst, 10);
+            textAscii("\",\"lat\":\"");
+            textDecimal(location.latitude, 6);
+            textAscii("\",\"lon\":\"");
+            textDecimal(location.longitude, 6);
+            textByte('"');
+
+            if ((payloadFields & FIELD_COURSE) != 0) {
+                textAscii(",\"cog\":");
+                textNumber(location.course / 10, 10);
+            }
+            if ((payloadFields & FIELD_SPEED) != 0) {
+                textAscii(",\"vel\":");
+                textNumber(location.speed * 36 / 1000, 10);
+            }
+            if ((payloadFields & FIELD_ALTITUDE) != 0) {
+                textAscii(",\"alt\":");
+                textNumber(location.altitude / 100, 10);
+            }
+            if ((payloadFields & FIELD_ACCURACY) != 0 && location.accuracy > 0) {
+                textAscii(",\"acc\":");
+                textNumber((location.accuracy + 50) / 100, 10);
+            }
+            if ((payloadFields & FIELD_DISTANCE) != 0) {
+                textAscii(",\"dist\":");
+                textNumber((long) location.incrementalDistance, 10);
+            }
+            if ((payloadFields & FIELD_TRIP) != 0) {
+                textAscii(",\"trip\":");
+                textNumber((long) trip, 10);
+            }
+            if ((payloadFields & FIELD_BATTERY) != 0) {
+                textAscii(",\"batt\":\"");
+                textAscii(BatteryManager.getInstance().getExternalVoltageString());
+                textByte('"');
+            }
+
+            textByte('}');
+        }
+
+        byte[] bytes = new byte[textLength];
+        System.arraycopy(textBuffer, 0, bytes, 0, textLength);
+        return bytes;
+    }
+
+    private void textByte(int value) {
+        if (textLength == textBuffer.length) {
+            byte[] larger = new byte[textBuffer.length * 2];
+            System.arraycopy(textBuffer, 0, larger, 0, textLength);
+            textBuffer = larger;
+        }
+        textBuffer[textLength++] = (byte) value;
+    }
+
+    private void textBytes(byte[] bytes) {
+        for (int i = 0; i < bytes.length; i++) {
+            textByte(bytes[i]);
         }
+    }
+
+    /**
+     * Appends an ASCII string, reasons, keys and the voltage only.
+     */
+    private void textAscii(String string) {
+        for (int i = 0; i < string.length(); i++) {
+            textByte(string.charAt(i));
+        }
+    }
+
+    /**
+     * Appends a number like Long.toString(value, radix).
+     */
+    private void textNumber(long value, int radix) {
+        if (value < 0) {
+            textByte('-');
+            value = -value;
+        }
+        int start = textLength;
+        do {
+            textByte(DIGITS[(int) (value % radix)]);
+            value /= radix;
+        } while (value != 0);
+        // digits were appended lowest first
+        for (int i = start, j = textLength - 1; i < j; i++, j--) {
+            byte b = textBuffer[i];
+            textBuffer[i] = textBuffer[j];
+            textBuffer[j] = b;
+        }
+    }
+
+    /**
+     * Appends a fixed-point integer like StringFunc.appendDecimal.
+     */
+    private void textDecimal(long value, int decimals) {
+        if (value < 0) {
+            textByte('-');
+            value = -value;
+        }
+        long scale = 1;
+        for (int i = 0; i < decimals; i++) {
+            scale *= 10;
+        }
+        textNumber(value / scale, 10);
+        textByte('.');
+        long fraction = value % scale;
+        while (scale > 10 && fraction % 10 == 0) {
+            fraction /= 10;
+            scale /= 10;
+        }
+        for (long digit = scale / 10; digit > 0; digit /= 10) {
+            textByte('0' + (int) (fraction / digit % 10));
+        }
+    }
+
+    /**
+     * Derives format, tid and field selection from the settings, only when
+     * the settings changed since the last call.
+     */
+    private synchronized void compilePayload() {
+        int generation = Settings.getInstance().getGeneration();
+        if (generation == payloadGeneration) {
+            return;
+        }
+
+        String tid = Settings.getInstance().getSetting("tid", null);
+        if (tid == null) {
+            String clientID = Settings.getInstance().getSetting("clientID",
+                    MicroManager.getInstance().getIMEI());
+            int len = clientID.length();
+            if (len > 2) {
+                tid = clientID.substring(len - 2);
+            } else {
+                tid = clientID;
+            }
+        }
+
+        String format = Settings.getInstance().getSetting("payload", "json");
+        payloadCsv = format.equalsIgnoreCase("csv");
+        payloadBinary = format.equalsIgnoreCase("binary");
+        binaryTid = tid;
+        if (payloadCsv) {
+            payloadTid = tid.getBytes();
+        } else {
+            // closes t, carries tid and opens tst
+            payloadTid = ("\",\"tid\":\"" + tid + "\",\"tst\":\"").getBytes();
+        }
+
+        String[] fields = StringFunc.split(Settings.getInstance().getSetting("fields", "course,speed,altitude,distance,trip"), ",");
+        payloadFields = 0;
+        for (int i = 0; i < fieldNames.length; i++) {
+            if (StringFunc.isInStringArray(fieldNames[i], fields)) {
+                payloadFields |= 1 << i;
+            }
+        }
+
+        payloadGeneration = generation;
+    }
+
+    public String getLastHumanString() {
+        LocationState current = state;
+        Location location = current.location;
         if (location != null) {
             String human;
 
@@ -525,12 +1249,12 @@ public class LocationManager {
              * 0         1         2
              */
             human = DateFormatter.isoDate(location.date) + " " + DateFormatter.isoTime(location.date) + " UTC\r\n";
-            human = human.concat("Latitude " + location.latitude + "\r\n");
-            human = human.concat("Longitude " + location.longitude + "\r\n");
-            human = human.concat("Altitude " + (long) location.altitude + "m\r\n");
-            human = human.concat("Speed " + (long) location.speed + "kph\r\n");
-            human = human.concat("Course " + (long) location.course + "\r\n");
-            human = human.concat("Trip " + (long) trip + "m\r\n");
+            human = human.concat("Latitude " + StringFunc.toDecimalString(location.latitude, 6) + "\r\n");
+            human = human.concat("Longitude " + StringFunc.toDecimalString(location.longitude, 6) + "\r\n");
+            human = human.concat("Altitude " + location.altitude / 100 + "m\r\n");
+            human = human.concat("Speed " + location.speed * 36 / 1000 + "kph\r\n");
+            human = human.concat("Course " + location.course / 10 + "\r\n");
+            human = human.concat("Trip " + (long) current.trip + "m\r\n");
 
             return human;
         } else {
@@ -0,0 +1,33 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package general;
+
+/**
+ * Snapshot of the LocationManager state as seen by other threads. It is never
+ * modified once created, LocationManager replaces it as a whole after each
+ * fix, so readers need no lock and always see one consistent fix.
+ *
+ * @author Christoph Krey <krey.christoph@gmail.com>
+ */
+public class LocationState {
+
+    /**
+     * the most recent fix, reported or not, null if there was none. Shared by
+     * all readers, read only, use copy() to modify
+     */
+    public final Location location;
+    /** trip odometer in m at the time of the fix */
+    public final double trip;
+    public final boolean fix;
+    public final int numSat;
+
+    LocationState(Location location, double trip, boolean fix, int numSat) {
+        this.location = location;
+        this.trip = trip;
+        this.fix = fix;
+        this.numSat = numSat;
+    }
+}
@@ -28,6 +28,9 @@ public class MQTTHandler implements MqttCallback {
     private boolean cleanSession;
     private String subscription;
     private int subscriptionQos;
+    private int mqttVersion;
+    private MqttMessage spareMessage = null;
+    private long lastSentTime = 0;
 
     private MQTTHandler() {
     }
@@ -52,7 +55,8 @@ public class MQTTHandler implements MqttCallback {
             int aKeepAlive,
             boolean aCleanSession,
             String aSubscription,
-            int aSubscriptionQos) {
+            int aSubscriptionQos,
+            int aMqttVersion) {
         clientId = aClientId;
         brokerURL = aBrokerURL;
         userName = aUserName;
@@ -65,6 +69,7 @@ public class MQTTHandler implements MqttCallback {
         cleanSession = aCleanSession;
         subscription = aSubscription;
         subscriptionQos = aSubscriptionQos;
+        mqttVersion = aMqttVersion;
         firstConnect = true;
 
         if (client != null) {
@@ -99,6 +104,9 @@ public class MQTTHandler implements MqttCallback {
                 }
                 options.setCleanSession(cleanSession);
                 options.setKeepAliveInterval(keepAlive);
+                if (mqttVersion == MqttConnectOptions.MQTT_VERSION_5) {
+                    options.setMqttVersion(MqttConnectOptions.MQTT_VERSION_5);
+                }
                 if (willTopic != null) {
                     options.setWill(client.getTopic(willTopic),
                             will, willQos, willRetain);
@@ -135,7 +143,13 @@ public class MQTTHandler implements MqttCallback {
 
         if (client.isConnected()) {
             MqttTopic topic = client.getTopic(topicName);
-            MqttMessage message = new MqttMessage(payload);
+            MqttMessage message = spareMessage;
+            spareMessage = null;
+            if (message == null) {
+                message = new MqttMessage(payload);
+            } else {
+                message.setPayload(payload);
+            }
             message.setQos(qos);
             message.setRetained(retained);
             MqttDeliveryToken token;
@@ -153,7 +167,9 @@ public class MQTTHandler implements MqttCallback {
 
             try {
                 SLog.log(SLog.Debug, "MQTTHandler", "waitForCompletion");
-                token.waitForCompletion();
+                lastSentTime = token.waitForCompletion();
+                // delivered, so the client no longer refers to the message
+                spareMessage = message;
                 return true;
             } catch (MqttSecurityException se) {
                 SLog.log(SLog.Warning, "MQTTHandler", "MqttSecurityException " + se.getReasonCode());
@@ -219,6 +235,14 @@ public class MQTTHandler implements MqttCallback {
         }
     }
 
+    /**
+     * Returns the time the last successfully published message was written
+     * to the socket.
+     */
+    public long getLastSentTime() {
+        return lastSentTime;
+    }
+
     public boolean isConnected() {
         if (client != null) {
             return client.isConnected();
@@ -244,22 +268,8 @@ public class MQTTHandler implements MqttCallback {
 
         if (proxyIndex == -1) {
 
-            CommandProcessor commandProcessor = CommandProcessor.getInstance();
-            String response;
-            if (commandProcessor.execute(message.toString(), true)) {
-                response = commandProcessor.message;
-            } else {
-                response = "NACK: " + commandProcessor.message;
-            }
-
-            if (response.length() > 0) {
-                SLog.log(SLog.Informational, "MQTTHandler", "response(" + response.length() + ") " + response);
-                String[] lines = StringFunc.split(response, "\r\n");
-                for (int i = 0; i < lines.length; i++) {
-                    if (lines[i].length() > 0) {
-                        SocketGPRSThread.getInstance().put(topic.getName() + "/out", 0, false, lines[i].getBytes());
-                    }
-                }
+            if (!CommandWorkerThread.getInstance().put(message.toString(), topic.getName() + "/out")) {
+                SocketGPRSThread.getInstance().put(topic.getName() + "/out", 0, false, "NACK: busy".getBytes());
             }
 
         } else {
@@ -80,6 +80,7 @@ public class MicroManager implements MovListener {
             //moved = false;
         } else if (event.equalsIgnoreCase("^MOVE: 1")) {
             moved = true;
+            CommGPSThread.getInstance().wakeup();
         }
     }
 
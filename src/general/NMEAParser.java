@@ -0,0 +1,269 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package general;
+
+/**
+ * Parses RMC and GGA sentences in place from the received bytes.
+ *
+ * The checksum is verified before any field is looked at, corrupt or
+ * unknown sentences are dropped. Values are kept as fixed-point integers
+ * and no objects are created while parsing.
+ *
+ * @author Christoph Krey <krey.christoph@gmail.com>
+ */
+public class NMEAParser {
+
+    public static final int NONE = 0;
+    public static final int RMC = 1;
+    public static final int GGA = 2;
+
+    /* RMC */
+    /** status A (valid) or V (receiver warning) */
+    public boolean valid;
+    /** UTC time as hhmmss */
+    public int time;
+    /** date as ddmmyy */
+    public int date;
+    /** latitude in microdegrees, south negative */
+    public int latitude;
+    /** longitude in microdegrees, west negative */
+    public int longitude;
+    /** speed over ground in cm/s */
+    public int speed;
+    /** course over ground in decidegrees */
+    public int course;
+
+    /* GGA */
+    /** fix quality, 0 = no fix */
+    public int quality;
+    /** number of satellites used */
+    public int numSat;
+    /** altitude above mean sea level in cm */
+    public int altitude;
+
+    /** sentences dropped because of a bad checksum or format */
+    public int errors = 0;
+
+    private byte[] buffer;
+    private int start;
+    private int end;
+    private int fieldStart;
+    private int fieldEnd;
+    private boolean failed;
+
+    /**
+     * Parses one sentence.
+     *
+     * @param bytes buffer holding the sentence
+     * @param offset index of the leading '$'
+     * @param length number of bytes up to, not including, CR/LF
+     * @return RMC or GGA if a sentence of that type was parsed, NONE otherwise
+     */
+    public int parse(byte[] bytes, int offset, int length) {
+        buffer = bytes;
+        start = offset;
+        end = offset + length;
+        while (end > start && (buffer[end - 1] == '\r' || buffer[end - 1] == '\n')) {
+            end--;
+        }
+
+        if (!checksum()) {
+            errors++;
+            return NONE;
+        }
+
+        // $ttRMC or $ttGGA, any talker
+        if (end - start < 7) {
+            return NONE;
+        }
+        int type;
+        if (buffer[start + 3] == 'R' && buffer[start + 4] == 'M' && buffer[start + 5] == 'C') {
+            type = RMC;
+        } else if (buffer[start + 3] == 'G' && buffer[start + 4] == 'G' && buffer[start + 5] == 'A') {
+            type = GGA;
+        } else {
+            return NONE;
+        }
+
+        failed = false;
+        fieldEnd = start + 6;
+        if (type == RMC) {
+            nextField();
+            time = (int) decimal(0);
+            nextField();
+            valid = fieldEnd > fieldStart && buffer[fieldStart] == 'A';
+            nextField();
+            int lat = coordinate(2);
+            nextField();
+            if (fieldEnd > fieldStart && buffer[fieldStart] == 'S') {
+                lat = -lat;
+            }
+            nextField();
+            int lon = coordinate(3);
+            nextField();
+            if (fieldEnd > fieldStart && buffer[fieldStart] == 'W') {
+                lon = -lon;
+            }
+            nextField();
+            // knots with 3 decimals -> cm/s, 1 kn = 1852 m / 3600 s
+            long knots = decimal(3);
+            nextField();
+            long cog = decimal(1);
+            nextField();
+            int ddmmyy = (int) decimal(0);
+            if (failed) {
+                errors++;
+                return NONE;
+            }
+            latitude = lat;
+            longitude = lon;
+            speed = (int) ((knots * 185200L / 3600L + 500L) / 1000L);
+            course = (int) cog;
+            date = ddmmyy;
+        } else {
+            nextField(); // time
+            nextField();
+            nextField();
+            nextField();
+            nextField();
+            nextField();
+            int q = (int) decimal(0);
+            nextField();
+            int n = (int) decimal(0);
+            nextField(); // hdop
+            nextField();
+            long alt = decimal(2);
+            if (failed) {
+                errors++;
+                return NONE;
+            }
+            quality = q;
+            numSat = n;
+            altitude = (int) alt;
+        }
+        return type;
+    }
+
+    /**
+     * Returns the last parsed sentence as a String, for raw publishing.
+     */
+    public String toString() {
+        if (buffer == null) {
+            return "";
+        }
+        return new String(buffer, start, end - start);
+    }
+
+    /**
+     * Verifies the XOR checksum between '$' and '*' against the two hex
+     * digits following the '*'.
+     */
+    private boolean checksum() {
+        if (end - start < 4 || buffer[start] != '$' || buffer[end - 3] != '*') {
+            return false;
+        }
+        int sum = 0;
+        for (int i = start + 1; i < end - 3; i++) {
+            sum ^= buffer[i] & 0xFF;
+        }
+        int high = hex(buffer[end - 2]);
+        int low = hex(buffer[end - 1]);
+        if (high < 0 || low < 0) {
+            return false;
+        }
+        return sum == (high << 4 | low);
+    }
+
+    private static int hex(byte b) {
+        if (b >= '0' && b <= '9') {
+            return b - '0';
+        } else if (b >= 'A' && b <= 'F') {
+            return b - 'A' + 10;
+        } else if (b >= 'a' && b <= 'f') {
+            return b - 'a' + 10;
+        }
+        return -1;
+    }
+
+    /**
+     * Advances to the next comma separated field, the checksum part ends the
+     * last field.
+     */
+    private void nextField() {
+        fieldStart = fieldEnd + 1;
+        int stop = end - 3;
+        if (fieldStart > stop) {
+            fieldStart = stop;
+            fieldEnd = stop;
+            failed = true;
+            return;
+        }
+        fieldEnd = fieldStart;
+        while (fieldEnd < stop && buffer[fieldEnd] != ',') {
+            fieldEnd++;
+        }
+    }
+
+    /**
+     * Parses the current field as a decimal number, scaled by 10^decimals
+     * and truncated. An empty field yields 0.
+     */
+    private long decimal(int decimals) {
+        long value = 0;
+        int fraction = -1;
+        for (int i = fieldStart; i < fieldEnd; i++) {
+            byte b = buffer[i];
+            if (b == '.' && fraction < 0) {
+                fraction = 0;
+            } else if (b >= '0' && b <= '9') {
+                if (fraction < 0) {
+                    value = value * 10 + (b - '0');
+                } else if (fraction < decimals) {
+                    value = value * 10 + (b - '0');
+                    fraction++;
+                }
+            } else if (b == '-' && i == fieldStart) {
+                // altitude below sea level
+            } else {
+                failed = true;
+                return 0;
+            }
+        }
+        if (fraction < 0) {
+            fraction = 0;
+        }
+        while (fraction < decimals) {
+            value *= 10;
+            fraction++;
+        }
+        if (fieldEnd > fieldStart && buffer[fieldStart] == '-') {
+            value = -value;
+        }
+        return value;
+    }
+
+    /**
+     * Parses the current field as (d)ddmm.mmmm into microdegrees, truncated.
+     */
+    private int coordinate(int degreeDigits) {
+        if (fieldEnd - fieldStart <= degreeDigits) {
+            return 0;
+        }
+        int degrees = 0;
+        for (int i = fieldStart; i < fieldStart + degreeDigits; i++) {
+            byte b = buffer[i];
+            if (b < '0' || b > '9') {
+                failed = true;
+                return 0;
+            }
+            degrees = degrees * 10 + (b - '0');
+        }
+        fieldStart += degreeDigits;
+        // minutes with 6 decimals, / 60 gives microdegrees
+        long minutes = decimal(6);
+        return (int) (degrees * 1000000L + minutes / 60L);
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package general;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads the GPS serial stream in bulk into a byte ring buffer and splits it
+ * in place into NMEA sentences and UBX frames, to be parsed by an NMEAParser
+ * or UBXParser.
+ *
+ * @author Christoph Krey <krey.christoph@gmail.com>
+ */
+public class NMEAReader {
+
+    public static final int SENTENCE = 1;
+    public static final int FRAME = 2;
+
+    /** longest message handed out, longer UBX frames are skipped */
+    public static final int maxLine = 128;
+
+    private static final int ringSize = 1024; // power of 2
+    private static final int ringMask = ringSize - 1;
+
+    private final byte[] ring = new byte[ringSize];
+    private final byte[] line = new byte[maxLine];
+
+    /* the message returned by the last call to next(), valid until the next
+     * call to fill() or next() */
+    public byte[] bytes;
+    public int offset;
+    public int length;
+
+    /* free running positions, masked on access */
+    private int readPos = 0;
+    private int scanPos = 0;
+    private int writePos = 0;
+
+    /** number of sentences and frames seen */
+    public int sentences = 0;
+    /** frames announcing a length that cannot fit into the buffer */
+    public int overruns = 0;
+    /** bytes thrown away because of overruns or resynchronization */
+    public int dropped = 0;
+
+    public NMEAReader() {
+    }
+
+    /**
+     * Reads what the stream has available without blocking, in as few read
+     * calls as the ring allows, but never more than fits. The rest stays in
+     * the stream until next() has made room.
+     *
+     * @return number of bytes read
+     */
+    public int fill(InputStream is) throws IOException {
+        int total = 0;
+        int available = is.available();
+        while (available > 0) {
+            int free = ringSize - (writePos - readPos);
+            if (free == 0) {
+                break;
+            }
+            int offset = writePos & ringMask;
+            int length = Math.min(Math.min(available, free), ringSize - offset);
+            int n = is.read(ring, offset, length);
+            if (n <= 0) {
+                break;
+            }
+            writePos += n;
+            total += n;
+            available -= n;
+        }
+        return total;
+    }
+
+    /**
+     * Finds the next complete NMEA sentence or UBX frame in the buffer and
+     * points bytes, offset and length to it.
+     *
+     * @return SENTENCE or FRAME, or -1 if no complete message is buffered
+     */
+    public int next() {
+        while (readPos != writePos) {
+            int c = ring[readPos & ringMask] & 0xFF;
+            if (c == '$') {
+                if (scanPos - readPos < 0) {
+                    scanPos = readPos;
+                }
+                while (scanPos != writePos && ring[scanPos & ringMask] != '\n') {
+                    if (ring[scanPos & ringMask] == '$' && scanPos != readPos) {
+                        // a sentence starts inside this one, drop the fragment
+                        dropped += scanPos - readPos;
+                        readPos = scanPos;
+                    }
+                    scanPos++;
+                }
+                int length = scanPos - readPos;
+                if (length > maxLine) {
+                    // no end in sight, resynchronize after the '$'
+                    dropped++;
+                    readPos++;
+                    continue;
+                }
+                if (scanPos == writePos) {
+                    return -1;
+                }
+                int start = readPos;
+                scanPos++;
+                readPos = scanPos;
+                sentences++;
+                message(start, length);
+                return SENTENCE;
+            } else if (c == UBXParser.SYNC1) {
+                int buffered = writePos - readPos;
+                if (buffered < UBXParser.HEADER) {
+                    if (buffered > 1 && (ring[(readPos + 1) & ringMask] & 0xFF) != UBXParser.SYNC2) {
+                        readPos++;
+                        continue;
+                    }
+                    return -1;
+                }
+                if ((ring[(readPos + 1) & ringMask] & 0xFF) != UBXParser.SYNC2) {
+                    readPos++;
+                    continue;
+                }
+                int length = UBXParser.OVERHEAD
+                        + ((ring[(readPos + 4) & ringMask] & 0xFF)
+                        | (ring[(readPos + 5) & ringMask] & 0xFF) << 8);
+                if (length > ringSize) {
+                    overruns++;
+                    dropped++;
+                    readPos++;
+                    continue;
+                }
+                if (buffered < length) {
+                    return -1;
+                }
+                int start = readPos;
+                readPos += length;
+                sentences++;
+                if (length > maxLine) {
+                    // not a frame we decode
+                    continue;
+                }
+                message(start, length);
+                return FRAME;
+            } else {
+                // noise, CR/LF or unknown binary output
+                readPos++;
+            }
+        }
+        return -1;
+    }
+
+    private void message(int start, int length) {
+        this.length = length;
+        offset = start & ringMask;
+        bytes = ring;
+        if (offset + length > ringSize) {
+            // message wraps around the end of the ring
+            int first = ringSize - offset;
+            System.arraycopy(ring, offset, line, 0, first);
+            System.arraycopy(ring, 0, line, first, length - first);
+            bytes = line;
+            offset = 0;
+        }
+    }
+}
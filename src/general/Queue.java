@@ -5,6 +5,7 @@
  */
 package general;
 
+import javax.microedition.rms.RecordEnumeration;
 import javax.microedition.rms.RecordStore;
 import javax.microedition.rms.RecordStoreException;
 import javax.microedition.rms.RecordStoreFullException;
@@ -24,6 +25,9 @@ public class Queue {
 
     private RecordStore recordStore;
     private int recordID;
+    /* bytes of the records in the queue, the record store does not shrink
+     * when records are deleted */
+    private long bytes = 0;
 
     Queue(long maxSize, String name) {
         this.name = name;
@@ -33,6 +37,7 @@ public class Queue {
 
     private void shrink(boolean force) {
         recordID = 0;
+        bytes = 0;
         try {
             if (this.recordStore != null) {
                 try {
@@ -74,6 +79,23 @@ public class Queue {
         } catch (RecordStoreException rse) {
             SLog.log(SLog.Error, "Queue", "RecordStoreException " + name);
         }
+        countBytes();
+    }
+
+    private void countBytes() {
+        bytes = 0;
+        if (recordStore == null) {
+            return;
+        }
+        try {
+            RecordEnumeration records = recordStore.enumerateRecords(null, null, false);
+            while (records.hasNextElement()) {
+                bytes += recordStore.getRecordSize(records.nextRecordId());
+            }
+            records.destroy();
+        } catch (RecordStoreException rse) {
+            SLog.log(SLog.Error, "Queue", "RecordStoreException countBytes " + name);
+        }
     }
 
     public synchronized byte[] get() {
@@ -144,10 +166,44 @@ public class Queue {
         return bytes;
     }
 
+    /**
+     * Reads the record <code>offset</code> places behind the head of the
+     * queue without consuming anything.
+     *
+     * @param offset 0 for the head, 1 for the record after it, ...
+     * @return the record or null if the queue is shorter
+     */
+    public synchronized byte[] get(int offset) {
+        byte[] bytes = get();
+        if (bytes == null || offset == 0) {
+            return bytes;
+        }
+        try {
+            bytes = recordStore.getRecord(recordID + offset);
+        } catch (InvalidRecordIDException irie) {
+            bytes = null;
+        } catch (RecordStoreNotOpenException rsnoe) {
+            SLog.log(SLog.Error, "Queue", "RecordStoreNotOpenException getRecord " + (recordID + offset));
+            bytes = null;
+        } catch (RecordStoreException rse) {
+            SLog.log(SLog.Error, "Queue", "RecordStoreException getRecord " + (recordID + offset));
+            bytes = null;
+        }
+        return bytes;
+    }
+
+    public synchronized void consume(int count) {
+        for (int i = 0; i < count; i++) {
+            consume();
+        }
+    }
+
     public synchronized void consume() {
         try {
             SLog.log(SLog.Debug, "Queue", "deleteRecord " + recordID);
+            int size = recordStore.getRecordSize(recordID);
             recordStore.deleteRecord(recordID);
+            bytes -= size;
             recordID++;
         } catch (RecordStoreNotOpenException rsnoe) {
             SLog.log(SLog.Error, "Queue", "RecordStoreNotOpenException deleteRecord " + recordID);
@@ -162,12 +218,14 @@ public class Queue {
                     + " size " + recordStore.getSize()
                     + "/" + recordStore.getSizeAvailable()
                     + "/" + maxSize);
-            if (recordStore.getSize() + maxRecord > maxSize
+            // the same base as load(), getSize() keeps the drained records
+            if (this.bytes + maxRecord > maxSize
                     || maxRecord > recordStore.getSizeAvailable()) {
                 SLog.log(SLog.Warning, "Queue", "maxSize limit reached");
                 return false;
             }
             int newRecordId = recordStore.addRecord(bytes, 0, bytes.length);
+            this.bytes += bytes.length;
         } catch (RecordStoreNotOpenException rsnoe) {
             SLog.log(SLog.Error, "Queue", "RecordStoreNotOpenException addRecord");
             return false;
@@ -178,6 +236,23 @@ public class Queue {
         return true;
     }
 
+    /**
+     * Returns how much of the budget the queued records use, in percent of
+     * maxSize or of what the record store can grow to, whichever is less.
+     */
+    public synchronized int load() {
+        try {
+            long budget = Math.min(maxSize, recordStore.getSize() + recordStore.getSizeAvailable());
+            if (budget <= maxRecord) {
+                return 100;
+            }
+            return (int) Math.min(100, bytes * 100 / (budget - maxRecord));
+        } catch (RecordStoreNotOpenException rsnoe) {
+            SLog.log(SLog.Error, "Queue", "RecordStoreNotOpenException getSize");
+            return 0;
+        }
+    }
+
     public synchronized int size() {
         try {
             return recordStore.getNumRecords();
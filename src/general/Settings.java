@@ -19,7 +19,7 @@ public class Settings {
     final private static String filePath = "file:///a:/file/";
     final private static String fileName = "OwnTracks.properties";
     private Hashtable hashTable;
-    private Vector vector;
+    private int generation = 0;
 
     private Settings() {
     }
@@ -42,6 +42,7 @@ public class Settings {
         } else {
             hashTable.put(key, value);
         }
+        generation++;
         if (write) {
             writeSettings();
         }
@@ -55,6 +56,14 @@ public class Settings {
         set(key, value, true);
     }
 
+    /**
+     * Returns a counter which changes whenever settings are set or loaded,
+     * allowing users to cache values derived from settings.
+     */
+    public synchronized int getGeneration() {
+        return generation;
+    }
+
     public synchronized String getSetting(String key, String defaultValue) {
         if (hashTable == null) {
             loadSettings();
@@ -112,6 +121,7 @@ public class Settings {
         if (hashTable == null) {
             hashTable = new Hashtable();
         }
+        generation++;
 
         try {
             FileConnection fconn = (FileConnection) Connector.open(filePath + fileName);
@@ -261,15 +271,26 @@ public class Settings {
     }
 
     public Enumeration keys() {
-        if (vector == null) {
-            vector = new Vector();
-        } else {
-            vector.removeAllElements();
+        String[] keys = keys("");
+        Vector vector = new Vector(keys.length);
+        for (int i = 0; i < keys.length; i++) {
+            vector.addElement(keys[i]);
         }
+        return vector.elements();
+    }
 
+    /**
+     * Returns a sorted snapshot of the keys starting with prefix, safe to
+     * iterate from any thread while settings change.
+     */
+    public synchronized String[] keys(String prefix) {
+        Vector vector = new Vector();
         Enumeration enumeration = hashTable.keys();
         while (enumeration.hasMoreElements()) {
             String key = (String) enumeration.nextElement();
+            if (!key.startsWith(prefix)) {
+                continue;
+            }
             int i;
             for (i = 0; i < vector.size(); i++) {
                 String vectorKey = (String) vector.elementAt(i);
@@ -279,6 +300,8 @@ public class Settings {
             }
             vector.insertElementAt(key, i);
         }
-        return vector.elements();
+        String[] keys = new String[vector.size()];
+        vector.copyInto(keys);
+        return keys;
     }
 }
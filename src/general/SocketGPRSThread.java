@@ -41,12 +41,27 @@ public class SocketGPRSThread extends Thread {
     public int cgregCellID = -1;
 
     private final Queue gpsQ;
+    private int pendingRecords = 0;
+
+    /* catch-up after an outage: new records go to liveQ and are sent first,
+     * the backlog in gpsQ is sent as backfill within backfillShare */
+    private final Queue liveQ;
+    private boolean backfill = false;
+    private long backfillMillis = 0;
+    /* the next backfill location record is to be sent as binary keyframe */
+    private boolean backfillKey = false;
+    /* the next live location record is to be queued as binary keyframe */
+    private boolean liveKey = false;
+    private Queue source;
+    private boolean wasConnected = false;
 
     private final Timer networkCheckTimer;
     private final TimerTask networkCheckTimerTask;
     private final int NetworkCheckLoop = 30;
     private final int NetworkCheckDelay = 10;
 
+    private Timer statsTimer = null;
+
     private final Timer providerCheckTimer;
     private final TimerTask providerCheckTimerTask;
     private final int ProviderCheckLoop = 300;
@@ -78,6 +93,11 @@ public class SocketGPRSThread extends Thread {
 
     public SocketGPRSThread() {
         gpsQ = new Queue(Settings.getInstance().getSetting("maxSize", 1024L * 1024L), "gpsQ");
+        // on top of maxSize, see settings
+        liveQ = new Queue(Settings.getInstance().getSetting("maxSize", 1024L * 1024L) / 4, "liveQ");
+        // interrupted catch-up, gpsQ is still older than liveQ
+        backfill = liveQ.size() > 0 && gpsQ.size() > 0;
+        source = gpsQ;
 
         networkCheckTimer = new Timer();
         networkCheckTimerTask = new NetworkCheckTimerTask();
@@ -87,9 +107,27 @@ public class SocketGPRSThread extends Thread {
         providerCheckTimerTask = new ProviderCheckTimerTask();
         providerCheckTimer.schedule(providerCheckTimerTask, ProviderCheckDelay * 1000L, ProviderCheckLoop * 1000L);
 
+        int statsInterval = Settings.getInstance().getSetting("statsInterval", 0);
+        if (statsInterval > 0) {
+            statsTimer = new Timer();
+            statsTimer.schedule(new StatsTimerTask(), statsInterval * 1000L, statsInterval * 1000L);
+        }
+
         startTimeoutTimer();
     }
 
+    class StatsTimerTask extends TimerTask {
+
+        public void run() {
+            put(Settings.getInstance().getSetting("publish", "owntracks/gw/")
+                    + Settings.getInstance().getSetting("clientID", MicroManager.getInstance().getIMEI())
+                    + "/stats",
+                    Settings.getInstance().getSetting("qos", 1),
+                    false,
+                    LatencyStats.getInstance().toString().getBytes());
+        }
+    }
+
     class GPRSTimeout extends TimerTask {
 
         public void run() {
@@ -153,6 +191,9 @@ public class SocketGPRSThread extends Thread {
         public byte[] payload;
         public boolean retain;
         public int qos;
+        public long created;
+        public long queued;
+        public long dequeued;
 
         byte[] serialize() {
             JSONObject json = new JSONObject();
@@ -160,7 +201,13 @@ public class SocketGPRSThread extends Thread {
                 json.put("retain", retain);
                 json.put("qos", qos);
                 json.put("topic", topic);
-                json.put("payload", new String(payload));
+                if (isText(payload)) {
+                    json.put("payload", new String(payload));
+                } else {
+                    json.put("hex", StringFunc.toHexString(payload));
+                }
+                json.put("created", created);
+                json.put("queued", queued);
             } catch (JSONException je) {
                 //
             }
@@ -195,7 +242,13 @@ public class SocketGPRSThread extends Thread {
                 publish.retain = json.getBoolean("retain");
                 publish.qos = json.getInt("qos");
                 publish.topic = json.getString("topic");
-                publish.payload = json.getString("payload").getBytes();
+                if (json.has("hex")) {
+                    publish.payload = StringFunc.fromHexString(json.getString("hex"));
+                } else {
+                    publish.payload = json.getString("payload").getBytes();
+                }
+                publish.created = json.optLong("created", 0);
+                publish.queued = json.optLong("queued", 0);
             } catch (JSONException je) {
                 SLog.log(SLog.Debug, "SocketGPRSThread",
                         "Packed get " + bytes.length + " " + bytes[0] + " " + bytes[1] + " " + bytes[2] + " " + bytes[3]);
@@ -213,19 +266,89 @@ public class SocketGPRSThread extends Thread {
         return publish;
     }
 
-    public synchronized boolean put(String topic, int qos, boolean retain, byte[] payload) {
+    public boolean put(String topic, int qos, boolean retain, byte[] payload) {
+        return put(topic, qos, retain, payload, 0);
+    }
+
+    /**
+     * Queues a publish.
+     *
+     * @param created time in milliseconds the data was created, used for
+     * latency statistics, 0 for now
+     */
+    public synchronized boolean put(String topic, int qos, boolean retain, byte[] payload, long created) {
         Publish publish = new Publish();
         publish.topic = topic;
         publish.payload = payload;
         publish.retain = retain;
         publish.qos = qos;
+        publish.queued = System.currentTimeMillis();
+        publish.created = created > 0 ? created : publish.queued;
+
+        if (backfill && liveKey && topic.equals(locationTopic())) {
+            liveKey = false;
+            byte[] keyframe = LocationManager.getInstance().keyframeOfLast(payload);
+            if (keyframe != payload) {
+                publish.payload = keyframe;
+                publish.retain = true;
+            }
+        }
 
-        boolean putResult = gpsQ.put(publish.serialize());
+        boolean putResult = (backfill ? liveQ : gpsQ).put(publish.serialize());
         return putResult;
     }
 
     public synchronized int qSize() {
-        return gpsQ.size();
+        return gpsQ.size() + liveQ.size();
+    }
+
+    /**
+     * Returns how full the queue is in percent of its budget, for producers
+     * to back off.
+     */
+    public int getBacklog() {
+        return (backfill ? liveQ : gpsQ).load();
+    }
+
+    public boolean isBackfill() {
+        return backfill;
+    }
+
+    /**
+     * Starts a catch-up if the link just came up with at least catchup
+     * records queued: the current position is published right away, new
+     * records are queued separately and sent before the backlog.
+     */
+    private void startCatchup() {
+        int catchup = Settings.getInstance().getSetting("catchup", 0);
+        synchronized (this) {
+            if (backfill || catchup <= 0 || gpsQ.size() < catchup || AppMain.getInstance().isOff()) {
+                return;
+            }
+            SLog.log(SLog.Informational, "SocketGPRSThread", "catch-up, backlog " + gpsQ.size());
+            backfill = true;
+            backfillMillis = 0;
+            backfillKey = true;
+            // the first live binary record must not refer to one in the backlog
+            liveKey = true;
+            LocationManager.getInstance().startBackfill();
+        }
+
+        LocationManager locationManager = LocationManager.getInstance();
+        byte[] payload = locationManager.getLivePayload("r");
+        if (payload != null) {
+            MQTTHandler.getInstance().publish(
+                    Settings.getInstance().getSetting("publish", "owntracks/gw/")
+                    + Settings.getInstance().getSetting("clientID", MicroManager.getInstance().getIMEI()),
+                    Settings.getInstance().getSetting("qos", 1),
+                    Settings.getInstance().getSetting("retain", true),
+                    payload);
+        }
+    }
+
+    private synchronized void stopCatchup() {
+        SLog.log(SLog.Informational, "SocketGPRSThread", "catch-up done");
+        backfill = false;
     }
 
     public void open() {
@@ -265,7 +388,8 @@ public class SocketGPRSThread extends Thread {
                     Settings.getInstance().getSetting("subscription",
                             Settings.getInstance().getSetting("publish", "owntracks/gw/")
                             + Settings.getInstance().getSetting("clientID", MicroManager.getInstance().getIMEI()) + "/cmd"),
-                    Settings.getInstance().getSetting("subscriptionQos", 2)
+                    Settings.getInstance().getSetting("subscriptionQos", 2),
+                    Settings.getInstance().getSetting("mqttVersion", 3)
             );
             MQTTHandler.getInstance().connectToBroker();
         }
@@ -286,11 +410,28 @@ public class SocketGPRSThread extends Thread {
             if (!MQTTHandler.getInstance().isConnected()) {
                 open();
             }
-            if (MQTTHandler.getInstance().isConnected()) {
-                Publish publish = deserialize(gpsQ.get());
+            boolean connected = MQTTHandler.getInstance().isConnected();
+            if (connected && !wasConnected) {
+                startCatchup();
+            }
+            wasConnected = connected;
+            if (connected) {
+                Publish publish = next();
                 if (publish != null) {
+                    long start = System.currentTimeMillis();
                     if (processMessage(publish)) {
-                        gpsQ.consume();
+                        source.consume(pendingRecords);
+                        if (publish.topic.equals(locationTopic())) {
+                            LocationManager.getInstance().sentBinary(publish.payload);
+                        } else if (publish.topic.equals(locationTopic() + "/backfill")) {
+                            backfillKey = false;
+                        }
+                        if (source == gpsQ && backfill && liveQ.size() > 0) {
+                            // leave the link to waiting live records for the rest of the share
+                            int share = Math.max(1, Math.min(100, Settings.getInstance().getSetting("backfillShare", 50)));
+                            long now = System.currentTimeMillis();
+                            backfillMillis = now + (now - start) * (100 - share) / share;
+                        }
                     } else {
                         try {
                             Thread.sleep(errorSleep);
@@ -310,9 +451,133 @@ public class SocketGPRSThread extends Thread {
         close();
     }
 
+    private String locationTopic() {
+        return Settings.getInstance().getSetting("publish", "owntracks/gw/")
+                + Settings.getInstance().getSetting("clientID", MicroManager.getInstance().getIMEI());
+    }
+
+    /**
+     * Returns the next publish to send, sets source to the queue it is from
+     * and pendingRecords to the number of records it covers.
+     *
+     * Records in liveQ always go first. During a catch-up, the backlog in
+     * gpsQ is sent once backfillShare allows it, location records marked by
+     * the subtopic /backfill and not retained, the first of them as binary
+     * keyframe. The catch-up ends when gpsQ is empty.
+     */
+    Publish next() {
+        if (liveQ.size() > 0) {
+            source = liveQ;
+            return next(liveQ);
+        }
+        source = gpsQ;
+        if (backfill) {
+            if (gpsQ.size() == 0) {
+                stopCatchup();
+            } else if (System.currentTimeMillis() < backfillMillis) {
+                return null;
+            } else {
+                Publish publish = next(gpsQ);
+                if (publish != null && publish.topic.equals(locationTopic())) {
+                    publish.topic = publish.topic + "/backfill";
+                    publish.retain = false;
+                    if (backfillKey) {
+                        // its predecessor went to the location topic
+                        publish.payload = LocationManager.getInstance().keyframeOf(publish.payload);
+                    }
+                }
+                return publish;
+            }
+        }
+        return next(gpsQ);
+    }
+
+    /**
+     * Returns the next publish from a queue and sets pendingRecords to the
+     * number of queued records it covers.
+     *
+     * While the backlog is above envelopeThreshold, consecutive JSON records
+     * for the same topic and qos are packed into one publish carrying a JSON
+     * array, so catch-up does not pay header, message id and ack per record.
+     * Envelopes are never retained; the newest record still goes out on its
+     * own once the backlog is drained, live traffic, including liveQ during a
+     * catch-up, is always sent singly.
+     */
+    Publish next(Queue queue) {
+        pendingRecords = 1;
+        Publish first = deserialize(queue.get());
+        if (first != null) {
+            first.dequeued = System.currentTimeMillis();
+        }
+        int threshold = Settings.getInstance().getSetting("envelopeThreshold", 0);
+        if (first == null || queue == liveQ || threshold <= 0 || !isJSONObject(first.payload)) {
+            return first;
+        }
+        int available = queue.size() - threshold;
+        int max = Math.min(Settings.getInstance().getSetting("envelopeMax", 10), available);
+        if (max < 2) {
+            return first;
+        }
+
+        StringBuffer buffer = new StringBuffer();
+        buffer.append('[');
+        buffer.append(new String(first.payload));
+        int count = 1;
+        while (count < max) {
+            Publish publish = deserialize(queue.get(count));
+            if (publish == null
+                    || !publish.topic.equals(first.topic)
+                    || publish.qos != first.qos
+                    || !isJSONObject(publish.payload)) {
+                break;
+            }
+            buffer.append(',');
+            buffer.append(new String(publish.payload));
+            count++;
+        }
+        if (count == 1) {
+            return first;
+        }
+        buffer.append(']');
+
+        Publish envelope = new Publish();
+        envelope.topic = first.topic;
+        envelope.qos = first.qos;
+        envelope.retain = false;
+        envelope.payload = buffer.toString().getBytes();
+        envelope.created = first.created;
+        envelope.queued = first.queued;
+        envelope.dequeued = first.dequeued;
+        pendingRecords = count;
+        SLog.log(SLog.Debug, "SocketGRPSThread", "envelope " + count + " " + first.topic);
+        return envelope;
+    }
+
+    /**
+     * Payloads which survive the round trip through a String, binary ones
+     * (control characters or any byte above 0x7F) are stored hex encoded.
+     */
+    private static boolean isText(byte[] payload) {
+        for (int i = 0; i < payload.length; i++) {
+            if (payload[i] < 0x20 && payload[i] != '\t' && payload[i] != '\r' && payload[i] != '\n') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean isJSONObject(byte[] payload) {
+        return payload.length > 0 && payload[0] == '{';
+    }
+
     boolean processMessage(Publish publish) {
         SLog.log(SLog.Debug, "SocketGRPSThread", "processMessage: " + publish.topic);
-        return MQTTHandler.getInstance().publish(publish.topic, publish.qos, publish.retain, publish.payload);
+        if (MQTTHandler.getInstance().publish(publish.topic, publish.qos, publish.retain, publish.payload)) {
+            LatencyStats.getInstance().record(publish.created, publish.queued, publish.dequeued,
+                    MQTTHandler.getInstance().getLastSentTime(), System.currentTimeMillis());
+            return true;
+        }
+        return false;
     }
 
     class NetworkCheckTimerTask extends TimerTask {
@@ -426,6 +691,9 @@ public class SocketGPRSThread extends Thread {
                 }
                 lastCellInfo = cellInfo;
             }
+            if (!AppMain.getInstance().isOff()) {
+                LocationManager.getInstance().coarseReport(MCC, MNC, cgregLAC, cgregCellID);
+            }
         }
     }
 
@@ -36,6 +36,87 @@ public class StringFunc {
         return false;
     }
 
+    /**
+     * Formats a fixed-point integer as decimal number without going through
+     * floating point, e.g. 48117300 with 6 decimals as 48.1173. Trailing
+     * zeros are dropped, at least one decimal is kept.
+     */
+    public static String toDecimalString(long value, int decimals) {
+        StringBuffer buffer = new StringBuffer(24);
+        appendDecimal(buffer, value, decimals);
+        return buffer.toString();
+    }
+
+    /**
+     * Appends a fixed-point integer as decimal number, see toDecimalString.
+     */
+    public static void appendDecimal(StringBuffer buffer, long value, int decimals) {
+        if (value < 0) {
+            buffer.append('-');
+            value = -value;
+        }
+        long scale = 1;
+        for (int i = 0; i < decimals; i++) {
+            scale *= 10;
+        }
+        buffer.append(value / scale);
+        buffer.append('.');
+        long fraction = value % scale;
+        int digits = decimals;
+        while (digits > 1 && fraction % 10 == 0) {
+            fraction /= 10;
+            digits--;
+        }
+        String string = Long.toString(fraction);
+        for (int i = string.length(); i < digits; i++) {
+            buffer.append('0');
+        }
+        buffer.append(string);
+    }
+
+    /**
+     * Parses a decimal number into a fixed-point integer without going
+     * through floating point, e.g. "48.1173" with 6 decimals as 48117300.
+     * Further decimals are truncated.
+     *
+     * @throws NumberFormatException if the string is not a decimal number
+     */
+    public static long parseDecimal(String string, int decimals) {
+        int start = 0;
+        boolean negative = false;
+        if (string.length() > 0 && (string.charAt(0) == '-' || string.charAt(0) == '+')) {
+            negative = string.charAt(0) == '-';
+            start = 1;
+        }
+        if (start >= string.length()) {
+            throw new NumberFormatException(string);
+        }
+        long value = 0;
+        int fraction = -1;
+        for (int i = start; i < string.length(); i++) {
+            char c = string.charAt(i);
+            if (c == '.' && fraction < 0) {
+                fraction = 0;
+            } else if (c >= '0' && c <= '9') {
+                if (fraction < 0) {
+                    value = value * 10 + (c - '0');
+                } else if (fraction < decimals) {
+                    value = value * 10 + (c - '0');
+                    fraction++;
+                }
+            } else {
+                throw new NumberFormatException(string);
+            }
+        }
+        if (fraction < 0) {
+            fraction = 0;
+        }
+        for (; fraction < decimals; fraction++) {
+            value *= 10;
+        }
+        return negative ? -value : value;
+    }
+
     public static String toHexString(int[] ints) {
         String string = "";
         for (int i = 0; i < ints.length; i++) {
@@ -60,6 +141,14 @@ public class StringFunc {
         return string;
     }
 
+    public static byte[] fromHexString(String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        return bytes;
+    }
+
     public static String replaceString(String originalString, String oldString, String newString) {
         String intermediateString = originalString;
         int indexOldString;
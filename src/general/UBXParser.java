@@ -0,0 +1,158 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package general;
+
+/**
+ * Parses u-blox UBX NAV-PVT frames in place from the received bytes.
+ *
+ * NAV-PVT carries time, fix, position, velocity and accuracy of one epoch in
+ * a single message. Values are converted to the same fixed-point units the
+ * NMEAParser uses, so both feed the LocationManager the same way.
+ *
+ * @author Christoph Krey <krey.christoph@gmail.com>
+ */
+public class UBXParser {
+
+    public static final int NONE = NMEAParser.NONE;
+    public static final int PVT = 3;
+
+    public static final int SYNC1 = 0xB5;
+    public static final int SYNC2 = 0x62;
+    /** sync, class, id and length before the payload */
+    public static final int HEADER = 6;
+    /** header plus two checksum bytes */
+    public static final int OVERHEAD = HEADER + 2;
+
+    private static final int CLASS_NAV = 0x01;
+    private static final int ID_PVT = 0x07;
+    private static final int LENGTH_PVT = 92;
+
+    /** gnssFixOK and a 2D, 3D or GNSS+dead reckoning fix */
+    public boolean valid;
+    /** date and time are resolved */
+    public boolean timeValid;
+    /** UTC time as hhmmss */
+    public int time;
+    /** date as ddmmyy */
+    public int date;
+    /** latitude in microdegrees, south negative */
+    public int latitude;
+    /** longitude in microdegrees, west negative */
+    public int longitude;
+    /** ground speed in cm/s */
+    public int speed;
+    /** heading of motion in decidegrees */
+    public int course;
+    /** altitude above mean sea level in cm */
+    public int altitude;
+    /** number of satellites used */
+    public int numSat;
+    /** horizontal accuracy estimate in mm */
+    public int hAcc;
+
+    /** frames dropped because of a bad checksum */
+    public int errors = 0;
+
+    private byte[] buffer;
+    private int payload;
+
+    /**
+     * Parses one frame.
+     *
+     * @param bytes buffer holding the frame
+     * @param offset index of the first sync character
+     * @param length length of the complete frame including checksum
+     * @return PVT if a NAV-PVT frame was parsed, NONE otherwise
+     */
+    public int parse(byte[] bytes, int offset, int length) {
+        if (!check(bytes, offset, length)) {
+            errors++;
+            return NONE;
+        }
+
+        if (bytes[offset + 2] != CLASS_NAV || bytes[offset + 3] != ID_PVT
+                || length != OVERHEAD + LENGTH_PVT) {
+            return NONE;
+        }
+
+        buffer = bytes;
+        payload = offset + HEADER;
+        int year = u2(4);
+        int flags = u1(11);
+        timeValid = (flags & 0x03) == 0x03;
+        time = u1(8) * 10000 + u1(9) * 100 + u1(10);
+        date = u1(7) * 10000 + u1(6) * 100 + year % 100;
+
+        int fixType = u1(20);
+        valid = (u1(21) & 0x01) != 0 && fixType >= 2 && fixType <= 4;
+        numSat = u1(23);
+
+        // 1e-7 degrees -> microdegrees, mm -> cm, 1e-5 degrees -> decidegrees
+        longitude = i4(24) / 10;
+        latitude = i4(28) / 10;
+        altitude = i4(36) / 10;
+        hAcc = i4(40);
+        speed = (i4(60) + 5) / 10;
+        course = (i4(64) + 5000) / 10000;
+        return PVT;
+    }
+
+    /**
+     * Verifies sync characters, length and checksum of a frame.
+     */
+    public static boolean check(byte[] bytes, int offset, int length) {
+        if (length < OVERHEAD
+                || (bytes[offset] & 0xFF) != SYNC1 || (bytes[offset + 1] & 0xFF) != SYNC2
+                || length != OVERHEAD + ((bytes[offset + 4] & 0xFF) | (bytes[offset + 5] & 0xFF) << 8)) {
+            return false;
+        }
+
+        int a = 0;
+        int b = 0;
+        for (int i = offset + 2; i < offset + length - 2; i++) {
+            a = (a + (bytes[i] & 0xFF)) & 0xFF;
+            b = (b + a) & 0xFF;
+        }
+        return a == (bytes[offset + length - 2] & 0xFF) && b == (bytes[offset + length - 1] & 0xFF);
+    }
+
+    /**
+     * Builds a UBX frame including sync characters and checksum.
+     */
+    public static byte[] frame(int messageClass, int id, int[] data) {
+        byte[] frame = new byte[OVERHEAD + data.length];
+        frame[0] = (byte) SYNC1;
+        frame[1] = (byte) SYNC2;
+        frame[2] = (byte) messageClass;
+        frame[3] = (byte) id;
+        frame[4] = (byte) (data.length & 0xFF);
+        frame[5] = (byte) (data.length >> 8);
+        for (int i = 0; i < data.length; i++) {
+            frame[HEADER + i] = (byte) data[i];
+        }
+        int a = 0;
+        int b = 0;
+        for (int i = 2; i < HEADER + data.length; i++) {
+            a = (a + (frame[i] & 0xFF)) & 0xFF;
+            b = (b + a) & 0xFF;
+        }
+        frame[frame.length - 2] = (byte) a;
+        frame[frame.length - 1] = (byte) b;
+        return frame;
+    }
+
+    private int u1(int index) {
+        return buffer[payload + index] & 0xFF;
+    }
+
+    private int u2(int index) {
+        return u1(index) | u1(index + 1) << 8;
+    }
+
+    private int i4(int index) {
+        return u1(index) | u1(index + 1) << 8 | u1(index + 2) << 16 | buffer[payload + index + 3] << 24;
+    }
+}
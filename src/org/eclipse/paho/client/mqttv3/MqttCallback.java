@@ -63,6 +63,10 @@ public interface MqttCallback {
 	 * acknowledgements have been received.  The supplied token will be same
 	 * token which was returned when the message was first sent, if it was
 	 * sent using {@link MqttTopic#publish(MqttMessage)}.
+	 * <p>Delivery tokens are recycled: once this method has returned and no
+	 * thread is waiting for completion on it any more, the token may be handed
+	 * out again for a later publish. Applications must not keep references to
+	 * delivery tokens beyond that point.</p>
 	 * 
 	 * @param token the delivery token associated with the message.
 	 */
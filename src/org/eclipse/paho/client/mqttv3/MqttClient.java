@@ -52,6 +52,7 @@ public class MqttClient implements DestinationProvider {
 	private ClientComms comms;
 	private Hashtable topics;
 	private MqttClientPersistence persistence;
+	private boolean mqttVersion5Declined = false;
 
 	private Trace trace;
 
@@ -382,12 +383,33 @@ public class MqttClient implements DestinationProvider {
 		if (options.isCleanSession()) {
 			persistence.clear();
 		}
-		comms.connect(
-				new MqttConnect(clientId, options.isCleanSession(), options
-						.getKeepAliveInterval(), options.getUserName(), options
-						.getPassword(), options.getWillMessage(), options
-						.getWillDestination()), options.getConnectionTimeout(),
-				options.getKeepAliveInterval(), options.isCleanSession());
+		int mqttVersion = options.getMqttVersion();
+		if (mqttVersion5Declined) {
+			mqttVersion = MqttConnectOptions.MQTT_VERSION_3_1;
+		}
+		try {
+			comms.connect(
+					new MqttConnect(clientId, options.isCleanSession(), options
+							.getKeepAliveInterval(), options.getUserName(), options
+							.getPassword(), options.getWillMessage(), options
+							.getWillDestination(), mqttVersion), options.getConnectionTimeout(),
+					options.getKeepAliveInterval(), options.isCleanSession());
+		} catch (MqttException e) {
+			// A 3.1 server answers an unknown protocol level with return code 1,
+			// a 5 server declining the version with reason code 0x84
+			if (mqttVersion == MqttConnectOptions.MQTT_VERSION_5
+					&& (e.getReasonCode() == MqttException.REASON_CODE_INVALID_PROTOCOL_VERSION
+					|| e.getReasonCode() == 0x84)) {
+				// @TRACE 108=Connect MQTT version 5 declined, falling back to 3.1
+				if (trace.isOn()) {
+					trace.trace(Trace.FINE, 108);
+				}
+				mqttVersion5Declined = true;
+				connect(options);
+			} else {
+				throw e;
+			}
+		}
 	}
 
 	/**
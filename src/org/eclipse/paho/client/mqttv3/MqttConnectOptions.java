@@ -32,6 +32,12 @@ public class MqttConnectOptions {
 	private Properties sslClientProps = null;
 	private boolean cleanSession = true;
 	private int connectionTimeout = 30;
+	private int mqttVersion = MQTT_VERSION_3_1;
+	
+	/** MQTT protocol version 3.1 */
+	public static final int MQTT_VERSION_3_1 = 3;
+	/** MQTT protocol version 5 */
+	public static final int MQTT_VERSION_5 = 5;
 	
 	/**
 	 * Constructs a new <code>MqttConnectOptions</code> object using the 
@@ -45,6 +51,7 @@ public class MqttConnectOptions {
 	 * <li>The connection timeout period is 30 seconds</li> 
 	 * <li>No Will message is set</li>
 	 * <li>A standard SocketFactory is used</li>
+	 * <li>MQTT version 3.1 is used</li>
 	 * </ul>
 	 * More information about these values can be found in the setter methods. 
 	 */
@@ -308,4 +315,26 @@ public class MqttConnectOptions {
 	public void setCleanSession(boolean cleanSession) {
 		this.cleanSession = cleanSession;
 	}
+	
+	/**
+	 * Returns the MQTT protocol version to connect with.
+	 * @return the protocol version
+	 */
+	public int getMqttVersion() {
+		return mqttVersion;
+	}
+	
+	/**
+	 * Sets the MQTT protocol version to connect with, either
+	 * {@link #MQTT_VERSION_3_1} or {@link #MQTT_VERSION_5}. With version 5
+	 * the client replaces repeated topics by topic aliases, as far as the
+	 * server allows. If the server declines version 5, the client falls
+	 * back to version 3.1.
+	 */
+	public void setMqttVersion(int mqttVersion) {
+		if (mqttVersion != MQTT_VERSION_3_1 && mqttVersion != MQTT_VERSION_5) {
+			throw new IllegalArgumentException();
+		}
+		this.mqttVersion = mqttVersion;
+	}
 }
@@ -33,9 +33,11 @@ public interface MqttDeliveryToken {
 	/**
 	 * Blocks the current thread until the message this is the token
 	 * for completes delivery.
+	 * @return the time in milliseconds at which the message was last written
+	 * to the network
 	 * @throws MqttException if there was a problem completing delivery of the message.
 	 */
-	public void waitForCompletion() throws MqttException, MqttSecurityException;
+	public long waitForCompletion() throws MqttException, MqttSecurityException;
 	
 	/**
 	 * Blocks the current thread until the message this is the token
@@ -45,9 +47,12 @@ public interface MqttDeliveryToken {
 	 * {@link #isComplete()} method can be used to determine if the delivery is
 	 * complete, or if the wait has timed out.
 	 * @param timeout the maximum amount of time to wait for, in milliseconds.
+	 * @return the time in milliseconds at which the message was last written
+	 * to the network, or 0 if it has not been written yet. The token may be
+	 * reused once delivery completed, so this is the only safe way to read it.
 	 * @throws MqttException if there was a problem completing delivery of the message
 	 */
-	public void waitForCompletion(long timeout) throws MqttException, MqttSecurityException;
+	public long waitForCompletion(long timeout) throws MqttException, MqttSecurityException;
 	
 	/**
 	 * Returns whether or not the delivery has finished.  Note that a token will
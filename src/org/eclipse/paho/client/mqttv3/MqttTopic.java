@@ -75,7 +75,7 @@ public class MqttTopic {
 	 * Create a PUBLISH packet from the specified message.
 	 */
 	private MqttPublish createPublish(MqttMessage message) {
-		return new MqttPublish(this.getName(), message);
+		return MqttPublish.obtain(this.getName(), message);
 	}
 	
 	/**
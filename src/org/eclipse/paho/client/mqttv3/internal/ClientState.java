@@ -99,6 +99,10 @@ public class ClientState {
 
 	private Trace trace;
 	
+	private int mqttVersion = MqttWireMessage.MQTT_VERSION_3_1;
+	private int topicAliasMaximum = 0;
+	private Hashtable topicAliases = new Hashtable();
+	
 	/** A count of the threads waiting in token.waitUntilSent.
 	 * @see #disconnected(MqttException, boolean)
 	 * @see #incrementWaitingTokens()
@@ -371,6 +375,10 @@ public class ClientState {
 		if (message instanceof MqttConnect) {
 			sentConnect = false;
 			connectFailed = false;
+			// Topic aliases only live as long as the network connection
+			mqttVersion = message.getMqttVersion();
+			topicAliasMaximum = 0;
+			topicAliases.clear();
 		}
 		if (message.isMessageIdRequired() && (message.getMessageId() == 0)) {
 			message.setMessageId(getNextMessageId());
@@ -590,10 +598,51 @@ public class ClientState {
 		}
 		if (result instanceof MqttConnect) {
 			sentConnect = true;
+		} else if (result != null) {
+			prepareForWire(result);
 		}
 		return result;
 	}
 	
+	/**
+	 * Brings an outbound message in line with the protocol version of the
+	 * current connection and, for MQTT 5, replaces the topic of a publish
+	 * by its alias once the broker has learned it.
+	 */
+	private void prepareForWire(MqttWireMessage message) {
+		message.setMqttVersion(mqttVersion);
+		if (!(message instanceof MqttPublish)) {
+			return;
+		}
+		MqttPublish publish = (MqttPublish) message;
+		if (mqttVersion != MqttWireMessage.MQTT_VERSION_5 || topicAliasMaximum == 0) {
+			publish.setTopicAlias(0, false);
+			return;
+		}
+		String topic = publish.getTopicName();
+		Integer alias = (Integer) topicAliases.get(topic);
+		if (alias != null) {
+			publish.setTopicAlias(alias.intValue(), true);
+		} else if (topicAliases.size() < topicAliasMaximum) {
+			alias = new Integer(topicAliases.size() + 1);
+			topicAliases.put(topic, alias);
+			publish.setTopicAlias(alias.intValue(), false);
+			if (trace.isOn()) {
+				//@TRACE 649=prepareForWire: topic={0} alias={1}
+				trace.trace(Trace.FINE,649,new Object[]{topic, alias});
+			}
+		} else {
+			publish.setTopicAlias(0, false);
+		}
+	}
+	
+	/**
+	 * Returns the protocol version of the current connection.
+	 */
+	public int getMqttVersion() {
+		return mqttVersion;
+	}
+	
 	public void setKeepAliveInterval(long interval) {
 		this.keepAlive = interval;
 	}
@@ -620,6 +669,7 @@ public class ClientState {
 				callback.deliveryComplete(token);
 				decrementInFlight();
 				releaseMessageId(message.getMessageId());
+				((MqttPublish)message).release();
 			}
 		}
 		// No ack expected for MqttDisconnect in v3 - so remove the token from the store
@@ -671,6 +721,7 @@ public class ClientState {
 			MqttAck ack = (MqttAck) message;
 			MqttDeliveryTokenImpl token = tokenStore.getToken(message);
 
+			MqttPublish acknowledged = null;
 			if ((ack instanceof MqttPubRec) &&
 				outboundQoS2.containsKey(new Integer(ack.getMessageId()))) {
 				// QoS 2
@@ -684,7 +735,7 @@ public class ClientState {
 						trace.trace(Trace.FINE,628,new Object[]{new Integer(ack.getMessageId())});
 					}
 					persistence.remove(getSendPersistenceKey(message));
-					outboundQoS1.remove(new Integer(ack.getMessageId()));
+					acknowledged = (MqttPublish) outboundQoS1.remove(new Integer(ack.getMessageId()));
 				}
 				else if (ack instanceof MqttPubComp) {
 					outboundQoS2.remove(new Integer(ack.getMessageId()));
@@ -709,6 +760,9 @@ public class ClientState {
 				}
 				else if (message instanceof MqttConnack) {
 					if (((MqttConnack)message).getReturnCode() == 0) {
+						if (mqttVersion == MqttWireMessage.MQTT_VERSION_5) {
+							topicAliasMaximum = ((MqttConnack)message).getTopicAliasMaximum();
+						}
 						if (cleanSession) {
 							clearState();
 						}
@@ -731,6 +785,12 @@ public class ClientState {
 				}
 				checkQuiesceLock();
 			}
+			// Nothing refers to the acknowledgement or the acknowledged
+			// publish any more, so both can be reused
+			if (acknowledged != null) {
+				acknowledged.release();
+			}
+			ack.release();
 		}
 		// Only handle incoming PUBLISH/PUBREL messages if we're not already shutting down...
 		else if (!quiescing) {
@@ -801,6 +861,10 @@ public class ClientState {
 		this.connected = false;
 		//tokenStore.noMoreResponses(reason);
 		synchronized (queueLock) {
+			// The sender of the next connection asks for work before its
+			// CONNECT is queued, so a declined CONNECT must not stop it.
+			sentConnect = false;
+			connectFailed = false;
 			queueLock.notifyAll();
 		}
 		try {
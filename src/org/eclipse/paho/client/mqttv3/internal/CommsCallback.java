@@ -122,6 +122,9 @@ public class CommsCallback implements Runnable {
 							trace.trace(Trace.FINE,705, new Object[]{token});
 						}
 						mqttCallback.deliveryComplete(token);
+						if (token != null) {
+							((MqttDeliveryTokenImpl) token).release();
+						}
 					}
 				}
 				// Check for messageArrived callbacks...
@@ -276,6 +279,8 @@ public class CommsCallback implements Runnable {
 				}
 				workAvailable.notifyAll();
 			}
+		} else if (token != null) {
+			((MqttDeliveryTokenImpl) token).release();
 		}
 	}
 	
@@ -84,7 +84,7 @@ public class CommsReceiver implements Runnable {
 			try {
 				//@TRACE 852=run: read message
 				trace.trace(Trace.FINE,852);
-				MqttWireMessage message = in.readMqttWireMessage();
+				MqttWireMessage message = in.readMqttWireMessage(clientState.getMqttVersion());
 				if (message instanceof MqttAck) {
 					MqttDeliveryToken token = tokenStore.getToken(message);
 					if (token!=null) {
@@ -125,7 +125,7 @@ public class CommsTokenStore {
 				trace.trace(Trace.FINE,302,new Object[]{message,key,token});
 			}
 		} else {
-			token = new MqttDeliveryTokenImpl(trace, message);
+			token = MqttDeliveryTokenImpl.obtain(trace, message);
 			this.tokens.put(key, token);
 			if (trace.isOn()) {
 				//@TRACE 303=restoreToken creating new message={0} key={1} token={2}
@@ -161,7 +161,7 @@ public class CommsTokenStore {
 		}
 		else if (message instanceof MqttPublish) {
 			key = new Integer(message.getMessageId());
-			token = new MqttDeliveryTokenImpl(trace, (MqttPublish) message);
+			token = MqttDeliveryTokenImpl.obtain(trace, (MqttPublish) message);
 		} 
 		else {
 			key = new Integer(message.getMessageId());
@@ -11,11 +11,15 @@
  */
 package org.eclipse.paho.client.mqttv3.internal;
 
+import java.util.Vector;
+
 import org.eclipse.paho.client.mqttv3.MqttDeliveryToken;
 import org.eclipse.paho.client.mqttv3.MqttException;
 import org.eclipse.paho.client.mqttv3.MqttMessage;
 import org.eclipse.paho.client.mqttv3.internal.trace.Trace;
 import org.eclipse.paho.client.mqttv3.internal.wire.MqttAck;
+import org.eclipse.paho.client.mqttv3.internal.wire.MqttPubAck;
+import org.eclipse.paho.client.mqttv3.internal.wire.MqttPubComp;
 import org.eclipse.paho.client.mqttv3.internal.wire.MqttPublish;
 import org.eclipse.paho.client.mqttv3.internal.wire.MqttWireMessage;
 
@@ -28,6 +32,18 @@ public class MqttDeliveryTokenImpl implements MqttDeliveryToken {
 	private boolean sent = false;
 	private boolean completed = false;
 	private int msgId = 0;
+	private long sentTime = 0;
+	
+	/** Threads currently inside waitForCompletion() */
+	private int waiters = 0;
+	/** Set once delivery has been reported and the token may be reused */
+	private boolean released = false;
+	/** Set while the token sits in the pool */
+	private boolean pooled = false;
+	
+	/** The number of recycled publish tokens kept for reuse */
+	private static final int POOL_SIZE = 10;
+	private static final Vector pool = new Vector();
 	
 	private Trace trace;
 	
@@ -49,19 +65,95 @@ public class MqttDeliveryTokenImpl implements MqttDeliveryToken {
 		this.msgId = send.getMessageId();
 	}
 	
-	public void waitForCompletion(long timeout) throws MqttException {
-		MqttWireMessage response = (MqttWireMessage)waitForResponse(timeout);
-		if (response == null && !completed) {
-			if (trace.isOn()) {
-				//@TRACE 406=waitForCompletion timed out timeout={0}
-				trace.trace(Trace.FINE,406,new Object[]{new Long(timeout)});
+	/**
+	 * Returns a recycled token for the given publish, or a new one if none
+	 * is available.
+	 */
+	static MqttDeliveryTokenImpl obtain(Trace trace, MqttPublish send) {
+		MqttDeliveryTokenImpl token = null;
+		synchronized (pool) {
+			if (!pool.isEmpty()) {
+				token = (MqttDeliveryTokenImpl) pool.lastElement();
+				pool.removeElementAt(pool.size() - 1);
 			}
-			throw new MqttException(MqttException.REASON_CODE_CLIENT_TIMEOUT);
 		}
+		if (token == null) {
+			return new MqttDeliveryTokenImpl(trace, send);
+		}
+		synchronized (token.responseLock) {
+			token.trace = trace;
+			token.message = send.getMessage();
+			token.msgId = send.getMessageId();
+			token.response = null;
+			token.exception = null;
+			token.completed = false;
+			token.released = false;
+			token.pooled = false;
+			token.waiters = 0;
+		}
+		synchronized (token.sentLock) {
+			token.sent = false;
+			token.sentTime = 0;
+		}
+		return token;
 	}
 	
-	public void waitForCompletion() throws MqttException {
-		waitForCompletion(-1);
+	/**
+	 * Marks this token as no longer needed by the client once delivery has
+	 * been reported. It is recycled as soon as no thread waits on it any
+	 * more, so the application must not keep it beyond
+	 * {@link org.eclipse.paho.client.mqttv3.MqttCallback#deliveryComplete(MqttDeliveryToken)}
+	 * and its own wait for completion.
+	 */
+	void release() {
+		synchronized (responseLock) {
+			released = true;
+		}
+		recycle();
+	}
+	
+	private void recycle() {
+		synchronized (responseLock) {
+			if (!released || pooled || waiters > 0) {
+				return;
+			}
+			pooled = true;
+		}
+		synchronized (pool) {
+			if (pool.size() < POOL_SIZE) {
+				pool.addElement(this);
+			}
+		}
+	}
+	
+	public long waitForCompletion(long timeout) throws MqttException {
+		synchronized (responseLock) {
+			waiters++;
+		}
+		try {
+			MqttWireMessage response = (MqttWireMessage)waitForResponse(timeout);
+			if (response == null && !completed) {
+				if (trace.isOn()) {
+					//@TRACE 406=waitForCompletion timed out timeout={0}
+					trace.trace(Trace.FINE,406,new Object[]{new Long(timeout)});
+				}
+				throw new MqttException(MqttException.REASON_CODE_CLIENT_TIMEOUT);
+			}
+			// Read while this thread still counts as waiter, the token
+			// cannot be recycled before
+			synchronized (sentLock) {
+				return sentTime;
+			}
+		} finally {
+			synchronized (responseLock) {
+				waiters--;
+			}
+			recycle();
+		}
+	}
+	
+	public long waitForCompletion() throws MqttException {
+		return waitForCompletion(-1);
 	}
 	
 	/**
@@ -145,6 +237,7 @@ public class MqttDeliveryTokenImpl implements MqttDeliveryToken {
 		}
 		synchronized (sentLock) {
 			sent = true;
+			sentTime = System.currentTimeMillis();
 			sentLock.notifyAll();
 		}
 	}
@@ -161,7 +254,13 @@ public class MqttDeliveryTokenImpl implements MqttDeliveryToken {
 			if (msg instanceof MqttAck) {
 				this.message = null;
 			}
-			this.response = msg;
+			// Publish acknowledgements carry nothing but the message ID and
+			// are recycled, so only completion is recorded for them
+			if ((msg instanceof MqttPubAck) || (msg instanceof MqttPubComp)) {
+				this.response = null;
+			} else {
+				this.response = msg;
+			}
 			this.completed = true;
 			responseLock.notifyAll();
 		}
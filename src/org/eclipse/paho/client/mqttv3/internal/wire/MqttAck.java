@@ -11,6 +11,9 @@
  */
 package org.eclipse.paho.client.mqttv3.internal.wire;
 
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Vector;
 
 /**
  * Abstract super-class of all acknowledgement messages.
@@ -23,5 +26,42 @@ public abstract class MqttAck extends MqttWireMessage {
 	protected byte getMessageInfo() {
 		return 0;
 	}
+	
+	/** The number of recycled acknowledgements kept per type */
+	protected static final int POOL_SIZE = 10;
+	
+	/**
+	 * Hands this acknowledgement back for reuse once it has been processed.
+	 * Only inbound acknowledgements that nobody keeps a reference to may be
+	 * released. The default does nothing.
+	 */
+	public void release() {
+	}
+	
+	protected static MqttAck take(Vector pool) {
+		synchronized (pool) {
+			if (pool.isEmpty()) {
+				return null;
+			}
+			MqttAck ack = (MqttAck) pool.lastElement();
+			pool.removeElementAt(pool.size() - 1);
+			return ack;
+		}
+	}
+	
+	protected static void give(Vector pool, MqttAck ack) {
+		synchronized (pool) {
+			if (pool.size() < POOL_SIZE) {
+				pool.addElement(ack);
+			}
+		}
+	}
+	
+	protected static int decodeMessageId(byte[] data) throws IOException {
+		if (data.length < 2) {
+			throw new EOFException();
+		}
+		return ((data[0] & 0xFF) << 8) | (data[1] & 0xFF);
+	}
 
 }
@@ -23,6 +23,7 @@ import org.eclipse.paho.client.mqttv3.MqttException;
  */
 public class MqttConnack extends MqttAck {
 	private int returnCode;
+	private int topicAliasMaximum = 0;
 	
 	public MqttConnack(byte info, byte[] variableHeader) throws IOException {
 		super(MqttWireMessage.MESSAGE_TYPE_CONNACK);
@@ -30,12 +31,72 @@ public class MqttConnack extends MqttAck {
 		DataInputStream dis = new DataInputStream(bais);
 		dis.readByte();
 		returnCode = dis.readUnsignedByte();
+		// Only an MQTT 5 CONNACK carries properties after the return code
+		if (variableHeader.length > 2) {
+			mqttVersion = MQTT_VERSION_5;
+			readProperties(dis);
+		}
 		dis.close();
 	}
 	
+	private void readProperties(DataInputStream dis) throws IOException {
+		long remaining = readMBI(dis).getValue();
+		while (remaining > 0) {
+			int id = dis.readUnsignedByte();
+			remaining--;
+			switch (id) {
+			case PROPERTY_TOPIC_ALIAS_MAXIMUM:
+				topicAliasMaximum = dis.readUnsignedShort();
+				remaining -= 2;
+				break;
+			case 0x13: // server keep alive
+			case 0x21: // receive maximum
+				dis.readUnsignedShort();
+				remaining -= 2;
+				break;
+			case 0x11: // session expiry interval
+			case 0x27: // maximum packet size
+				dis.readInt();
+				remaining -= 4;
+				break;
+			case 0x12: // assigned client identifier
+			case 0x15: // authentication method
+			case 0x16: // authentication data
+			case 0x1A: // response information
+			case 0x1C: // server reference
+			case 0x1F: // reason string
+				remaining -= 2 + skipString(dis);
+				break;
+			case 0x26: // user property
+				remaining -= 4 + skipString(dis) + skipString(dis);
+				break;
+			default: // single byte properties
+				dis.readByte();
+				remaining--;
+				break;
+			}
+		}
+	}
+	
+	private int skipString(DataInputStream dis) throws IOException {
+		int length = dis.readUnsignedShort();
+		for (int i = 0; i < length; i++) {
+			dis.readByte();
+		}
+		return length;
+	}
+	
 	public int getReturnCode() {
 		return returnCode;
 	}
+	
+	/**
+	 * Returns the number of topic aliases the broker accepts from this
+	 * client, 0 if it does not accept any or is not an MQTT 5 broker.
+	 */
+	public int getTopicAliasMaximum() {
+		return topicAliasMaximum;
+	}
 
 	protected byte[] getVariableHeader() throws MqttException {
 		// Not needed, as the client never encodes a CONNACK
@@ -40,7 +40,20 @@ public class MqttConnect extends MqttWireMessage {
 			char[] password,
 			MqttMessage willMessage,
 			MqttTopic willDestination) {
+		this(clientId, cleanSession, keepAliveInterval, userName, password,
+				willMessage, willDestination, MQTT_VERSION_3_1);
+	}
+	
+	public MqttConnect(String clientId,
+			boolean cleanSession,
+			int keepAliveInterval,
+			String userName,
+			char[] password,
+			MqttMessage willMessage,
+			MqttTopic willDestination,
+			int mqttVersion) {
 		super(MqttWireMessage.MESSAGE_TYPE_CONNECT);
+		this.mqttVersion = mqttVersion;
 		this.clientId = clientId;
 		this.cleanSession = cleanSession;
 		this.keepAliveInterval = keepAliveInterval;
@@ -62,8 +75,13 @@ public class MqttConnect extends MqttWireMessage {
 		try {
 			ByteArrayOutputStream baos = new ByteArrayOutputStream();
 			DataOutputStream dos = new DataOutputStream(baos);
-			dos.writeUTF("MQIsdp");
-			dos.write(3);
+			if (mqttVersion == MQTT_VERSION_5) {
+				dos.writeUTF("MQTT");
+				dos.write(MQTT_VERSION_5);
+			} else {
+				dos.writeUTF("MQIsdp");
+				dos.write(MQTT_VERSION_3_1);
+			}
 			byte connectFlags = 0;
 			
 			if (cleanSession) {
@@ -86,6 +104,17 @@ public class MqttConnect extends MqttWireMessage {
 			}
 			dos.write(connectFlags);
 			dos.writeShort(keepAliveInterval);
+			if (mqttVersion == MQTT_VERSION_5) {
+				// MQTT 5 ends the session on disconnect unless an expiry is
+				// given, so keep it forever to match 3.1 cleanSession=false.
+				if (cleanSession) {
+					dos.writeByte(0);
+				} else {
+					dos.writeByte(5);
+					dos.writeByte(PROPERTY_SESSION_EXPIRY_INTERVAL);
+					dos.writeInt(0xFFFFFFFF);
+				}
+			}
 			dos.flush();
 			return baos.toByteArray();
 		} catch(IOException ioe) {
@@ -100,6 +129,7 @@ public class MqttConnect extends MqttWireMessage {
 			dos.writeUTF(clientId);
 			
 			if (willMessage != null) {
+				writeEmptyProperties(dos);
 				dos.writeUTF(willDestination.getName());
 				dos.writeShort(willMessage.getPayload().length);
 				dos.write(willMessage.getPayload());
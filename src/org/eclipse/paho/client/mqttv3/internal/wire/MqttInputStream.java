@@ -47,6 +47,14 @@ public class MqttInputStream extends InputStream {
 	 * Reads an <code>MqttWireMessage</code> from the stream.
 	 */
 	public MqttWireMessage readMqttWireMessage() throws IOException, MqttException {
+		return readMqttWireMessage(MqttWireMessage.MQTT_VERSION_3_1);
+	}
+	
+	/**
+	 * Reads an <code>MqttWireMessage</code> from the stream, decoding it
+	 * according to the given protocol version.
+	 */
+	public MqttWireMessage readMqttWireMessage(int mqttVersion) throws IOException, MqttException {
 		ByteArrayOutputStream bais = new ByteArrayOutputStream();
 		byte first = in.readByte();
 		byte type = (byte) ((first >>> 4) & 0x0F);
@@ -63,7 +71,7 @@ public class MqttInputStream extends InputStream {
 		in.readFully(packet,bais.size(),packet.length - bais.size());
 		byte[] header = bais.toByteArray();
 		System.arraycopy(header,0,packet,0, header.length);
-		MqttWireMessage message = MqttWireMessage.createWireMessage(packet);
+		MqttWireMessage message = MqttWireMessage.createWireMessage(packet, mqttVersion);
 		return message;
 	}
 }
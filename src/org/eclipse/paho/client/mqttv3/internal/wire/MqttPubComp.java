@@ -14,6 +14,7 @@ package org.eclipse.paho.client.mqttv3.internal.wire;
 import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
 import java.io.IOException;
+import java.util.Vector;
 
 import org.eclipse.paho.client.mqttv3.MqttException;
 
@@ -23,6 +24,8 @@ import org.eclipse.paho.client.mqttv3.MqttException;
  * An on-the-wire representation of an MQTT PUBCOMP message.
  */
 public class MqttPubComp extends MqttAck {
+	private static final Vector pool = new Vector();
+	
 	public MqttPubComp(byte info, byte[] data) throws IOException {
 		super(MqttWireMessage.MESSAGE_TYPE_PUBCOMP);
 		ByteArrayInputStream bais = new ByteArrayInputStream(data);
@@ -41,6 +44,23 @@ public class MqttPubComp extends MqttAck {
 		this.msgId = msgId;
 	}
 	
+	/**
+	 * Returns a recycled PUBCOMP carrying the message ID in <code>data</code>,
+	 * or a new one if none is available.
+	 */
+	public static MqttPubComp obtain(byte info, byte[] data) throws IOException {
+		MqttPubComp ack = (MqttPubComp) take(pool);
+		if (ack == null) {
+			return new MqttPubComp(info, data);
+		}
+		ack.setMessageId(decodeMessageId(data));
+		return ack;
+	}
+	
+	public void release() {
+		give(pool, this);
+	}
+	
 	protected byte[] getVariableHeader() throws MqttException {
 		return encodeMessageId();
 	}
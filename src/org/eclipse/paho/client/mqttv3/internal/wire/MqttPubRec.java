@@ -14,6 +14,7 @@ package org.eclipse.paho.client.mqttv3.internal.wire;
 import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
 import java.io.IOException;
+import java.util.Vector;
 
 import org.eclipse.paho.client.mqttv3.MqttException;
 
@@ -23,6 +24,8 @@ import org.eclipse.paho.client.mqttv3.MqttException;
  * An on-the-wire representation of an MQTT PUBREC message.
  */
 public class MqttPubRec extends MqttAck {
+	private static final Vector pool = new Vector();
+	
 	public MqttPubRec(byte info, byte[] data) throws IOException {
 		super(MqttWireMessage.MESSAGE_TYPE_PUBREC);
 		ByteArrayInputStream bais = new ByteArrayInputStream(data);
@@ -36,6 +39,23 @@ public class MqttPubRec extends MqttAck {
 		msgId = publish.getMessageId();
 	}
 	
+	/**
+	 * Returns a recycled PUBREC carrying the message ID in <code>data</code>,
+	 * or a new one if none is available.
+	 */
+	public static MqttPubRec obtain(byte info, byte[] data) throws IOException {
+		MqttPubRec ack = (MqttPubRec) take(pool);
+		if (ack == null) {
+			return new MqttPubRec(info, data);
+		}
+		ack.setMessageId(decodeMessageId(data));
+		return ack;
+	}
+	
+	public void release() {
+		give(pool, this);
+	}
+	
 	protected byte[] getVariableHeader() throws MqttException {
 		return encodeMessageId();
 	}
@@ -16,6 +16,7 @@ import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.util.Vector;
 
 import org.eclipse.paho.client.mqttv3.MqttException;
 import org.eclipse.paho.client.mqttv3.MqttMessage;
@@ -32,19 +33,82 @@ public class MqttPublish extends MqttPersistableWireMessage {
 	
 	private byte[] encodedPayload = null;
 	
+	/** MQTT 5 topic alias sent with this publish, 0 for none */
+	private int topicAlias = 0;
+	/** Whether the topic name is left out in favour of the alias */
+	private boolean topicAliasOnly = false;
+	
+	/** The number of recycled outbound publishes kept for reuse */
+	private static final int POOL_SIZE = 10;
+	private static final Vector pool = new Vector();
+	
 	public MqttPublish(String name, MqttMessage message) {
 		super(MqttWireMessage.MESSAGE_TYPE_PUBLISH);
 		this.topicName = name;
 		this.message = message;
 	}
 	
+	/**
+	 * Returns a recycled outbound publish for the given topic and message,
+	 * or a new one if none is available.
+	 */
+	public static MqttPublish obtain(String name, MqttMessage message) {
+		MqttPublish publish = null;
+		synchronized (pool) {
+			if (!pool.isEmpty()) {
+				publish = (MqttPublish) pool.lastElement();
+				pool.removeElementAt(pool.size() - 1);
+			}
+		}
+		if (publish == null) {
+			return new MqttPublish(name, message);
+		}
+		publish.topicName = name;
+		publish.message = message;
+		publish.encodedPayload = null;
+		publish.topicAlias = 0;
+		publish.topicAliasOnly = false;
+		publish.mqttVersion = MQTT_VERSION_3_1;
+		publish.duplicate = false;
+		publish.setMessageId(0);
+		publish.resetHeader();
+		return publish;
+	}
+	
+	/**
+	 * Hands this publish back for reuse. Must only be called once the
+	 * publish has been acknowledged and removed from persistence.
+	 */
+	public void release() {
+		this.topicName = null;
+		this.message = null;
+		this.encodedPayload = null;
+		synchronized (pool) {
+			if (pool.size() < POOL_SIZE) {
+				pool.addElement(this);
+			}
+		}
+	}
+	
 	/**
 	 * Constructs a new MqttPublish object.
 	 * @param info the message info byte
 	 * @param data the variable header and payload bytes
 	 */
 	public MqttPublish(byte info, byte[] data) throws MqttException, IOException {
+		this(info, data, MQTT_VERSION_3_1);
+	}
+	
+	/**
+	 * Constructs a new MqttPublish object received on a connection using
+	 * the given protocol level.
+	 * @param info the message info byte
+	 * @param data the variable header and payload bytes
+	 * @param mqttVersion the protocol level of the connection
+	 */
+	public MqttPublish(byte info, byte[] data, int mqttVersion) throws MqttException, IOException {
 		super(MqttWireMessage.MESSAGE_TYPE_PUBLISH);
+		this.mqttVersion = mqttVersion;
 		this.message = new MqttReceivedMessage();
 		message.setQos((info >> 1) & 0x03);
 		if ((info & 0x01) == 0x01) {
@@ -61,6 +125,9 @@ public class MqttPublish extends MqttPersistableWireMessage {
 		if (message.getQos() > 0) {
 			msgId = dis.readUnsignedShort();
 		}
+		if (mqttVersion == MQTT_VERSION_5) {
+			skipProperties(dis);
+		}
 		dis.close();
 		byte[] payload = new byte[data.length-counter.getCounter()];
 		dis.readFully(payload);
@@ -87,6 +154,25 @@ public class MqttPublish extends MqttPersistableWireMessage {
 		return message;
 	}
 	
+	/**
+	 * Sets the MQTT 5 topic alias to send with this publish. If
+	 * <code>aliasOnly</code> is true, the topic name is omitted and the broker
+	 * resolves it from the alias established earlier on the same connection.
+	 * @param topicAlias the alias, or 0 to send the topic name only
+	 * @param aliasOnly whether to omit the topic name
+	 */
+	public void setTopicAlias(int topicAlias, boolean aliasOnly) {
+		if (this.topicAlias != topicAlias || this.topicAliasOnly != aliasOnly) {
+			this.topicAlias = topicAlias;
+			this.topicAliasOnly = aliasOnly;
+			resetHeader();
+		}
+	}
+	
+	public int getTopicAlias() {
+		return topicAlias;
+	}
+	
 	protected static byte[] encodePayload(MqttMessage message) throws MqttException {
 //		byte payloadType = message.getPayloadType();
 //		if (payloadType == MqttMessage.PAYLOAD_EMPTY) {
@@ -144,10 +230,23 @@ public class MqttPublish extends MqttPersistableWireMessage {
 		try {
 			ByteArrayOutputStream baos = new ByteArrayOutputStream();
 			DataOutputStream dos = new DataOutputStream(baos);
-			dos.writeUTF(topicName);
+			if (mqttVersion == MQTT_VERSION_5 && topicAliasOnly) {
+				dos.writeUTF("");
+			} else {
+				dos.writeUTF(topicName);
+			}
 			if (message.getQos() > 0) {
 				dos.writeShort(msgId);
 			}
+			if (mqttVersion == MQTT_VERSION_5) {
+				if (topicAlias > 0) {
+					dos.writeByte(3);
+					dos.writeByte(PROPERTY_TOPIC_ALIAS);
+					dos.writeShort(topicAlias);
+				} else {
+					dos.writeByte(0);
+				}
+			}
 			dos.flush();
 			return baos.toByteArray();
 		}
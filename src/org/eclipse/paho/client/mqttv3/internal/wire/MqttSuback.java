@@ -25,17 +25,21 @@ public class MqttSuback extends MqttAck {
 	private int[] grantedQos;
 	
 	public MqttSuback(byte info, byte[] data) throws IOException {
+		this(info, data, MQTT_VERSION_3_1);
+	}
+	
+	public MqttSuback(byte info, byte[] data, int mqttVersion) throws IOException {
 		super(MqttWireMessage.MESSAGE_TYPE_SUBACK);
+		this.mqttVersion = mqttVersion;
 		ByteArrayInputStream bais = new ByteArrayInputStream(data);
 		DataInputStream dis = new DataInputStream(bais);
 		msgId = dis.readUnsignedShort();
-		int index = 0;
-		grantedQos = new int[data.length-2];
-		int qos = dis.read();
-		while (qos != -1) {
-			grantedQos[index] = qos;
-			index++;
-			qos = dis.read();
+		if (mqttVersion == MQTT_VERSION_5) {
+			skipProperties(dis);
+		}
+		grantedQos = new int[bais.available()];
+		for (int index = 0; index < grantedQos.length; index++) {
+			grantedQos[index] = dis.readUnsignedByte();
 		}
 		dis.close();
 	}
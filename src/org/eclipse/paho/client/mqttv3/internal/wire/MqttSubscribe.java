@@ -45,6 +45,7 @@ public class MqttSubscribe extends MqttWireMessage {
 			ByteArrayOutputStream baos = new ByteArrayOutputStream();
 			DataOutputStream dos = new DataOutputStream(baos);
 			dos.writeShort(msgId);
+			writeEmptyProperties(dos);
 			dos.flush();
 			return baos.toByteArray();
 		}
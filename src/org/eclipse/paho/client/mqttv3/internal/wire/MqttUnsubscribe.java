@@ -42,6 +42,7 @@ public class MqttUnsubscribe extends MqttWireMessage {
 			ByteArrayOutputStream baos = new ByteArrayOutputStream();
 			DataOutputStream dos = new DataOutputStream(baos);
 			dos.writeShort(msgId);
+			writeEmptyProperties(dos);
 			dos.flush();
 			return baos.toByteArray();
 		}
@@ -44,6 +44,15 @@ public abstract class MqttWireMessage {
 	public static final byte MESSAGE_TYPE_PINGRESP = 13;
 	public static final byte MESSAGE_TYPE_DISCONNECT = 14;
 	
+	/** MQTT protocol levels supported on the wire */
+	public static final int MQTT_VERSION_3_1 = 3;
+	public static final int MQTT_VERSION_5 = 5;
+	
+	/** MQTT 5 property identifiers interpreted by this client */
+	public static final int PROPERTY_SESSION_EXPIRY_INTERVAL = 0x11;
+	public static final int PROPERTY_TOPIC_ALIAS_MAXIMUM = 0x22;
+	public static final int PROPERTY_TOPIC_ALIAS = 0x23;
+	
 	/** The type of the message (e.g. CONNECT, PUBLISH, PUBACK) */
 	private byte type;
 	/** The MQTT message ID */
@@ -53,6 +62,9 @@ public abstract class MqttWireMessage {
 	
 	private byte[] encodedHeader = null;
 	
+	/** The protocol level this message is encoded for */
+	protected int mqttVersion = MQTT_VERSION_3_1;
+	
 	public MqttWireMessage(byte type) {
 		this.type = type;
 		// Use zero as the default message ID.  Can't use -1, as that is serialized
@@ -94,6 +106,32 @@ public abstract class MqttWireMessage {
 		this.msgId = msgId;
 	}
 	
+	/**
+	 * Returns the protocol level this message is encoded for.
+	 */
+	public int getMqttVersion() {
+		return mqttVersion;
+	}
+	
+	/**
+	 * Sets the protocol level this message is encoded for. Any header
+	 * encoded for a different level is discarded.
+	 */
+	public void setMqttVersion(int mqttVersion) {
+		if (this.mqttVersion != mqttVersion) {
+			this.mqttVersion = mqttVersion;
+			resetHeader();
+		}
+	}
+	
+	/**
+	 * Discards the cached encoding of the header, so that it is rebuilt
+	 * the next time the message is written.
+	 */
+	protected void resetHeader() {
+		encodedHeader = null;
+	}
+	
 	public byte[] getHeader() throws MqttException {
 		if (encodedHeader == null) {
 			try {
@@ -144,11 +182,19 @@ public abstract class MqttWireMessage {
 	}
 	
 	public static MqttWireMessage createWireMessage(byte[] bytes) throws MqttException {
+		return createWireMessage(bytes, MQTT_VERSION_3_1);
+	}
+
+	public static MqttWireMessage createWireMessage(byte[] bytes, int mqttVersion) throws MqttException {
 		ByteArrayInputStream bais = new ByteArrayInputStream(bytes);
-		return createWireMessage(bais);
+		return createWireMessage(bais, mqttVersion);
 	}
 
 	private static MqttWireMessage createWireMessage(InputStream inputStream) throws MqttException {
+		return createWireMessage(inputStream, MQTT_VERSION_3_1);
+	}
+
+	private static MqttWireMessage createWireMessage(InputStream inputStream, int mqttVersion) throws MqttException {
 		try {
 			CountingInputStream counter = new CountingInputStream(inputStream);
 			DataInputStream in = new DataInputStream(counter);
@@ -168,13 +214,13 @@ public abstract class MqttWireMessage {
 			}
 				
 			if (type == MqttWireMessage.MESSAGE_TYPE_PUBLISH) {
-				result = new MqttPublish(info, data);
+				result = new MqttPublish(info, data, mqttVersion);
 			}
 			else if (type == MqttWireMessage.MESSAGE_TYPE_PUBACK) {
-				result = new MqttPubAck(info, data);
+				result = MqttPubAck.obtain(info, data);
 			}
 			else if (type == MqttWireMessage.MESSAGE_TYPE_PUBCOMP) {
-				result = new MqttPubComp(info, data);
+				result = MqttPubComp.obtain(info, data);
 			}
 			else if (type == MqttWireMessage.MESSAGE_TYPE_CONNACK) {
 				result = new MqttConnack(info, data);
@@ -183,7 +229,7 @@ public abstract class MqttWireMessage {
 				result = new MqttPingResp(info, data);
 			}
 			else if (type == MqttWireMessage.MESSAGE_TYPE_SUBACK) {
-				result = new MqttSuback(info, data);
+				result = new MqttSuback(info, data, mqttVersion);
 			}
 			else if (type == MqttWireMessage.MESSAGE_TYPE_UNSUBACK) {
 				result = new MqttUnsubAck(info, data);
@@ -192,7 +238,7 @@ public abstract class MqttWireMessage {
 				result = new MqttPubRel(info, data);
 			}
 			else if (type == MqttWireMessage.MESSAGE_TYPE_PUBREC) {
-				result = new MqttPubRec(info, data);
+				result = MqttPubRec.obtain(info, data);
 			}
 			else {
 				throw ExceptionHelper.createMqttException(MqttException.REASON_CODE_UNEXPECTED_ERROR);
@@ -239,6 +285,26 @@ public abstract class MqttWireMessage {
 		return new MultiByteInteger(msgLength, count);
 	}
 	
+	/**
+	 * Writes an empty property block if this message is encoded for MQTT 5.
+	 * MQTT 3.1 has no properties, so nothing is written in that case.
+	 */
+	protected void writeEmptyProperties(DataOutputStream dos) throws IOException {
+		if (mqttVersion == MQTT_VERSION_5) {
+			dos.writeByte(0);
+		}
+	}
+	
+	/**
+	 * Skips an MQTT 5 property block, consuming its length prefix and contents.
+	 */
+	protected static void skipProperties(DataInputStream in) throws IOException {
+		long length = readMBI(in).getValue();
+		for (long i = 0; i < length; i++) {
+			in.readByte();
+		}
+	}
+	
 	protected byte[] encodeMessageId() throws MqttException {
 		try {
 			ByteArrayOutputStream baos = new ByteArrayOutputStream();